@@ -0,0 +1,93 @@
+package cn.com.shadowless.compilelib;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 内存预算编译结果
+ *
+ * @author sHadowLess
+ */
+public final class BudgetCompileResult {
+
+    /**
+     * The Dex name list.
+     */
+    private final List<String> dexNameList;
+
+    /**
+     * The Unit count.
+     */
+    private final int unitCount;
+
+    /**
+     * The Peak retained bytes.
+     */
+    private final long peakRetainedBytes;
+
+    /**
+     * The Peak heap bytes.
+     */
+    private final long peakHeapBytes;
+
+    /**
+     * Instantiates a new Budget compile result.
+     *
+     * @param dexNameList       the dex name list
+     * @param unitCount         the unit count
+     * @param peakRetainedBytes the peak retained bytes
+     * @param peakHeapBytes     the peak heap bytes
+     */
+    BudgetCompileResult(List<String> dexNameList, int unitCount, long peakRetainedBytes, long peakHeapBytes) {
+        this.dexNameList = Collections.unmodifiableList(dexNameList);
+        this.unitCount = unitCount;
+        this.peakRetainedBytes = peakRetainedBytes;
+        this.peakHeapBytes = peakHeapBytes;
+    }
+
+    /**
+     * 按分块顺序生成的dex名
+     *
+     * @return the dex name list
+     */
+    public List<String> getDexNameList() {
+        return dexNameList;
+    }
+
+    /**
+     * Gets unit count.
+     *
+     * @return the unit count
+     */
+    public int getUnitCount() {
+        return unitCount;
+    }
+
+    /**
+     * 编译过程中同时持有的源码、class字节和待dx分块字节之和的峰值
+     *
+     * @return the peak retained bytes
+     */
+    public long getPeakRetainedBytes() {
+        return peakRetainedBytes;
+    }
+
+    /**
+     * 每个单元编译和每次dx之后采样到的堆占用峰值
+     *
+     * @return the peak heap bytes
+     */
+    public long getPeakHeapBytes() {
+        return peakHeapBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "BudgetCompileResult{" +
+                "dexNameList=" + dexNameList +
+                ", unitCount=" + unitCount +
+                ", peakRetainedBytes=" + peakRetainedBytes +
+                ", peakHeapBytes=" + peakHeapBytes +
+                '}';
+    }
+}
@@ -0,0 +1,284 @@
+package cn.com.shadowless.compilelib;
+
+import org.codehaus.commons.compiler.ErrorHandler;
+import org.codehaus.commons.compiler.WarningHandler;
+import org.codehaus.janino.util.ClassFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 内存预算编译，适用于低内存设备
+ * <p>
+ * 逐个单元执行 编译 -> 写出class -> 释放编译器，
+ * 暂存的class字节超过预算时立即对该分块执行dx，避免整批编译时的内存峰值
+ * <p>
+ * 每个分块dex写出或删除后立即通过ChunkListener通知，而不是等整批完成，
+ * 编译中途失败时已覆盖的分块也能及时刷新ClassLoader缓存和路由索引
+ *
+ * @author sHadowLess
+ */
+public final class BudgetedCompiler {
+
+    /**
+     * The Core.
+     */
+    private final CompileCore core;
+
+    /**
+     * The Staging dir.
+     */
+    private final File stagingDir;
+
+    /**
+     * The Dex dir.
+     */
+    private final File dexDir;
+
+    /**
+     * The Dex prefix.
+     */
+    private final String dexPrefix;
+
+    /**
+     * The Budget bytes.
+     */
+    private final long budgetBytes;
+
+    /**
+     * The Chunk listener.
+     */
+    private final ChunkListener chunkListener;
+
+    /**
+     * Instantiates a new Budgeted compiler.
+     *
+     * @param core          the core
+     * @param stagingRoot   class暂存根目录，不能位于交给dx整体读取的文件夹下
+     * @param dexDir        the dex dir
+     * @param dexPrefix     the dex prefix
+     * @param budgetBytes   the budget bytes
+     * @param chunkListener the chunk listener
+     */
+    public BudgetedCompiler(CompileCore core, File stagingRoot, File dexDir, String dexPrefix, long budgetBytes, ChunkListener chunkListener) {
+        if (budgetBytes <= 0) {
+            throw new IllegalArgumentException("内存预算必须大于0");
+        }
+        this.core = core;
+        this.stagingDir = new File(stagingRoot, ".budget_" + dexPrefix);
+        this.dexDir = dexDir;
+        this.dexPrefix = dexPrefix;
+        this.budgetBytes = budgetBytes;
+        this.chunkListener = chunkListener;
+    }
+
+    /**
+     * 编译字符串代码，key为classFileName，value为javaCode
+     *
+     * @param map            the map
+     * @param errorHandler   the error handler
+     * @param warningHandler the warning handler
+     * @return the budget compile result
+     * @throws Exception the exception
+     */
+    public BudgetCompileResult compileSources(Map<String, String> map, ErrorHandler errorHandler, WarningHandler warningHandler) throws Exception {
+        List<Unit> units = new ArrayList<>(map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            String fileName = entry.getKey();
+            String javaCode = entry.getValue();
+            units.add(new Unit(javaCode.length() * 2L, () -> core.compile(fileName, new StringReader(javaCode), errorHandler, warningHandler)));
+        }
+        return run(units);
+    }
+
+    /**
+     * 编译Java文件，key为File对象，value为编码格式，源码在编译时才从磁盘读取
+     *
+     * @param map            the map
+     * @param errorHandler   the error handler
+     * @param warningHandler the warning handler
+     * @return the budget compile result
+     * @throws Exception the exception
+     */
+    public BudgetCompileResult compileFiles(Map<File, String> map, ErrorHandler errorHandler, WarningHandler warningHandler) throws Exception {
+        List<Unit> units = new ArrayList<>(map.size());
+        for (Map.Entry<File, String> entry : map.entrySet()) {
+            File javaFile = entry.getKey();
+            String encoding = entry.getValue();
+            units.add(new Unit(javaFile.length() * 2L, () -> core.compileFile(javaFile, encoding, errorHandler, warningHandler)));
+        }
+        return run(units);
+    }
+
+    /**
+     * Run budget compile result.
+     *
+     * @param units the units
+     * @return the budget compile result
+     * @throws Exception the exception
+     */
+    private BudgetCompileResult run(List<Unit> units) throws Exception {
+        List<String> dexNameList = new ArrayList<>();
+        long chunkBytes = 0;
+        long peakRetainedBytes = 0;
+        long peakHeapBytes = sampleHeap(0);
+        CompileCore.deleteDirectory(stagingDir);
+        try {
+            for (Unit unit : units) {
+                long unitBytes = compileUnit(unit);
+                peakRetainedBytes = Math.max(peakRetainedBytes, chunkBytes + unit.sourceBytes + unitBytes);
+                chunkBytes += unitBytes;
+                peakHeapBytes = sampleHeap(peakHeapBytes);
+                if (chunkBytes >= budgetBytes) {
+                    dexNameList.add(flushChunk(dexNameList.size()));
+                    chunkBytes = 0;
+                    peakHeapBytes = sampleHeap(peakHeapBytes);
+                }
+            }
+            if (chunkBytes > 0) {
+                dexNameList.add(flushChunk(dexNameList.size()));
+                peakHeapBytes = sampleHeap(peakHeapBytes);
+            }
+            removeStaleChunks(dexNameList.size());
+        } finally {
+            CompileCore.deleteDirectory(stagingDir);
+        }
+        return new BudgetCompileResult(dexNameList, units.size(), peakRetainedBytes, peakHeapBytes);
+    }
+
+    /**
+     * 编译单个单元并写出到暂存目录，返回后编译器和class字节即可回收
+     *
+     * @param unit the unit
+     * @return 写出的class字节数
+     * @throws Exception the exception
+     */
+    private long compileUnit(Unit unit) throws Exception {
+        return CompileCore.writeClassFiles(stagingDir.getAbsolutePath(), unit.compiler.compile());
+    }
+
+    /**
+     * 对当前分块执行dx并清空暂存目录
+     *
+     * @param chunkIndex the chunk index
+     * @return the dex name
+     * @throws Exception the exception
+     */
+    private String flushChunk(int chunkIndex) throws Exception {
+        String dexName = dexPrefix + "_" + chunkIndex + ".dex";
+        File dexFile = new File(dexDir, dexName);
+        if (dexFile.exists()) {
+            dexFile.delete();
+            chunkListener.onChunkRemoved(dexFile);
+        }
+        core.runDx("--dex", "--no-strict", "--output=" + dexFile.getAbsolutePath(), stagingDir.getAbsolutePath());
+        CompileCore.deleteDirectory(stagingDir);
+        chunkListener.onChunkWritten(dexFile);
+        return dexName;
+    }
+
+    /**
+     * 删除上次编译遗留的、序号不小于本次分块数量的分块dex
+     *
+     * @param chunkCount the chunk count
+     * @throws IOException the io exception
+     */
+    private void removeStaleChunks(int chunkCount) throws IOException {
+        File[] files = dexDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        String chunkPrefix = dexPrefix + "_";
+        for (File file : files) {
+            String name = file.getName();
+            if (!file.isFile() || !name.startsWith(chunkPrefix) || !name.endsWith(".dex")) {
+                continue;
+            }
+            String index = name.substring(chunkPrefix.length(), name.length() - ".dex".length());
+            if (index.isEmpty() || index.length() > 9 || !index.matches("[0-9]+")) {
+                continue;
+            }
+            if (Integer.parseInt(index) >= chunkCount && file.delete()) {
+                chunkListener.onChunkRemoved(file);
+            }
+        }
+    }
+
+    /**
+     * Sample heap long.
+     *
+     * @param peakHeapBytes the peak heap bytes
+     * @return the long
+     */
+    private long sampleHeap(long peakHeapBytes) {
+        Runtime runtime = Runtime.getRuntime();
+        return Math.max(peakHeapBytes, runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    /**
+     * 分块dex变化的回调
+     */
+    public interface ChunkListener {
+
+        /**
+         * 分块dex已写出
+         *
+         * @param dexFile the dex file
+         * @throws IOException the io exception
+         */
+        void onChunkWritten(File dexFile) throws IOException;
+
+        /**
+         * 分块dex已删除
+         *
+         * @param dexFile the dex file
+         * @throws IOException the io exception
+         */
+        void onChunkRemoved(File dexFile) throws IOException;
+    }
+
+    /**
+     * The interface Unit compiler.
+     */
+    private interface UnitCompiler {
+
+        /**
+         * Compile class file [ ].
+         *
+         * @return the class file [ ]
+         * @throws Exception the exception
+         */
+        ClassFile[] compile() throws Exception;
+    }
+
+    /**
+     * The type Unit.
+     */
+    private static final class Unit {
+
+        /**
+         * The Source bytes.
+         */
+        private final long sourceBytes;
+
+        /**
+         * The Compiler.
+         */
+        private final UnitCompiler compiler;
+
+        /**
+         * Instantiates a new Unit.
+         *
+         * @param sourceBytes the source bytes
+         * @param compiler    the compiler
+         */
+        private Unit(long sourceBytes, UnitCompiler compiler) {
+            this.sourceBytes = sourceBytes;
+            this.compiler = compiler;
+        }
+    }
+}
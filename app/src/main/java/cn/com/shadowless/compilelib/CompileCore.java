@@ -0,0 +1,310 @@
+package cn.com.shadowless.compilelib;
+
+import org.codehaus.commons.compiler.CompileException;
+import org.codehaus.commons.compiler.ErrorHandler;
+import org.codehaus.commons.compiler.WarningHandler;
+import org.codehaus.commons.compiler.util.resource.MapResourceCreator;
+import org.codehaus.commons.compiler.util.resource.ResourceFinder;
+import org.codehaus.janino.ClassLoaderIClassLoader;
+import org.codehaus.janino.Compiler;
+import org.codehaus.janino.SimpleCompiler;
+import org.codehaus.janino.util.ClassFile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 编译核心，不依赖Android，可在纯JVM环境下使用
+ *
+ * @author sHadowLess
+ */
+public final class CompileCore {
+
+    /**
+     * The constant DX_MAIN.
+     */
+    private static final String DX_MAIN = "com.android.dx.command.dexer.Main";
+
+    /**
+     * The constant DX_ARGUMENTS.
+     */
+    private static final String DX_ARGUMENTS = DX_MAIN + "$Arguments";
+
+    /**
+     * The Has compile log.
+     */
+    private final boolean hasCompileLog;
+
+    /**
+     * The Dx loader.
+     */
+    private final ClassLoader dxLoader;
+
+    /**
+     * Instantiates a new Compile core.
+     *
+     * @param hasCompileLog the has compile log
+     * @param dxLoader      the dx loader
+     */
+    public CompileCore(boolean hasCompileLog, ClassLoader dxLoader) {
+        this.hasCompileLog = hasCompileLog;
+        this.dxLoader = dxLoader;
+    }
+
+    /**
+     * is Dx Available.
+     *
+     * @param loader the loader
+     * @return the available
+     */
+    public static boolean isDxAvailable(ClassLoader loader) {
+        try {
+            loader.loadClass(DX_MAIN);
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 创建只加载dx所在jar的独立ClassLoader
+     * <p>
+     * dx内部的静态状态属于加载它的ClassLoader，不同独立ClassLoader中的dx调用可以并行；
+     * 无法定位dx所在jar（如Android运行时）时返回原loader，dx调用仍串行
+     *
+     * @param loader the loader
+     * @return the class loader
+     */
+    public static ClassLoader newIsolatedDxLoader(ClassLoader loader) {
+        try {
+            CodeSource codeSource = loader.loadClass(DX_MAIN).getProtectionDomain().getCodeSource();
+            if (codeSource != null && codeSource.getLocation() != null) {
+                return new URLClassLoader(new URL[]{codeSource.getLocation()}, null);
+            }
+        } catch (ClassNotFoundException | SecurityException e) {
+            //无法隔离，使用原loader
+        }
+        return loader;
+    }
+
+    /**
+     * Compile source to class files.
+     *
+     * @param fileName       the file name
+     * @param reader         the reader
+     * @param errorHandler   the error handler
+     * @param warningHandler the warning handler
+     * @return the class files
+     * @throws CompileException the compile exception
+     * @throws IOException      the io exception
+     */
+    public ClassFile[] compile(String fileName, Reader reader, ErrorHandler errorHandler, WarningHandler warningHandler) throws CompileException, IOException {
+        SimpleCompiler compiler = newCompiler(errorHandler, warningHandler);
+        compiler.cook(fileName, reader);
+        return compiler.getClassFiles();
+    }
+
+    /**
+     * Compile file to class files.
+     *
+     * @param javaFile       the java file
+     * @param encoding       the encoding
+     * @param errorHandler   the error handler
+     * @param warningHandler the warning handler
+     * @return the class files
+     * @throws CompileException the compile exception
+     * @throws IOException      the io exception
+     */
+    public ClassFile[] compileFile(File javaFile, String encoding, ErrorHandler errorHandler, WarningHandler warningHandler) throws CompileException, IOException {
+        SimpleCompiler compiler = newCompiler(errorHandler, warningHandler);
+        compiler.cookFile(javaFile, encoding);
+        return compiler.getClassFiles();
+    }
+
+    /**
+     * 将多个源文件作为一个整体编译，源文件之间可以互相引用
+     *
+     * @param javaFiles      the java files
+     * @param encoding       the encoding
+     * @param classLoader    解析源文件之外的类所用的ClassLoader
+     * @param errorHandler   the error handler
+     * @param warningHandler the warning handler
+     * @return key为class资源名（如com/example/Test.class），value为class字节
+     * @throws CompileException the compile exception
+     * @throws IOException      the io exception
+     */
+    public Map<String, byte[]> compileTree(List<File> javaFiles, String encoding, ClassLoader classLoader, ErrorHandler errorHandler, WarningHandler warningHandler) throws CompileException, IOException {
+        Map<String, byte[]> classBytesMap = new TreeMap<>();
+        Compiler compiler = new Compiler();
+        compiler.setIClassLoader(new ClassLoaderIClassLoader(classLoader));
+        compiler.setCharacterEncoding(encoding);
+        compiler.setDebugLines(hasCompileLog);
+        compiler.setDebugVars(hasCompileLog);
+        compiler.setDebugSource(hasCompileLog);
+        compiler.setClassFileFinder(ResourceFinder.EMPTY_RESOURCE_FINDER);
+        compiler.setClassFileCreator(new MapResourceCreator(classBytesMap));
+        if (errorHandler != null) {
+            compiler.setCompileErrorHandler(errorHandler);
+        }
+        if (warningHandler != null) {
+            compiler.setWarningHandler(warningHandler);
+        }
+        compiler.compile(javaFiles.toArray(new File[0]));
+        return classBytesMap;
+    }
+
+    /**
+     * New compiler simple compiler.
+     *
+     * @param errorHandler   the error handler
+     * @param warningHandler the warning handler
+     * @return the simple compiler
+     */
+    private SimpleCompiler newCompiler(ErrorHandler errorHandler, WarningHandler warningHandler) {
+        SimpleCompiler compiler = new SimpleCompiler();
+        compiler.setDebuggingInformation(hasCompileLog, hasCompileLog, hasCompileLog);
+        if (errorHandler != null) {
+            compiler.setCompileErrorHandler(errorHandler);
+        }
+        if (warningHandler != null) {
+            compiler.setWarningHandler(warningHandler);
+        }
+        return compiler;
+    }
+
+    /**
+     * Write class file.
+     *
+     * @param dirPath    the dir path
+     * @param fileName   the file name
+     * @param classBytes the class bytes
+     * @throws IOException the io exception
+     */
+    public static void writeClassFile(String dirPath, String fileName, byte[] classBytes) throws IOException {
+        File dirs = new File(dirPath);
+        if (!dirs.exists()) {
+            dirs.mkdirs();
+        }
+        try (FileOutputStream fos = new FileOutputStream(new File(dirs, fileName))) {
+            fos.write(classBytes, 0, classBytes.length);
+            fos.flush();
+        }
+    }
+
+    /**
+     * 按包名目录结构写出全部class文件
+     *
+     * @param dirPath    the dir path
+     * @param classFiles the class files
+     * @return 写出的class字节数
+     * @throws IOException the io exception
+     */
+    public static long writeClassFiles(String dirPath, ClassFile[] classFiles) throws IOException {
+        long totalBytes = 0;
+        for (ClassFile classFile : classFiles) {
+            String className = classFile.getThisClassName();
+            int index = className.lastIndexOf('.');
+            String packageDir = index == -1 ? "" : className.substring(0, index).replace('.', File.separatorChar);
+            byte[] classBytes = classFile.toByteArray();
+            writeClassFile(new File(dirPath, packageDir).getAbsolutePath(), className.substring(index + 1) + ".class", classBytes);
+            totalBytes += classBytes.length;
+        }
+        return totalBytes;
+    }
+
+    /**
+     * 在目标文件所在文件夹创建以.开头的临时文件，写完后通过replaceFile替换目标文件
+     *
+     * @param targetFile the target file
+     * @return the temp file
+     * @throws IOException the io exception
+     */
+    public static File createTempFile(File targetFile) throws IOException {
+        return File.createTempFile("." + targetFile.getName(), ".tmp", targetFile.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * 用临时文件替换目标文件
+     * <p>
+     * 同一文件夹内的重命名不会改写原文件内容，已打开原文件的DexClassLoader或内存映射仍读取旧内容，
+     * 而原地截断重写会让它们读到不完整的数据（内存映射读取被截断的部分会触发SIGBUS）
+     *
+     * @param tempFile   the temp file
+     * @param targetFile the target file
+     * @throws IOException the io exception
+     */
+    public static void replaceFile(File tempFile, File targetFile) throws IOException {
+        if (!tempFile.renameTo(targetFile) && !(targetFile.delete() && tempFile.renameTo(targetFile))) {
+            tempFile.delete();
+            throw new IOException("文件写入失败：" + targetFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * 删除文件夹及其全部内容
+     *
+     * @param dir the dir
+     */
+    public static void deleteDirectory(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDirectory(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * Run dx.
+     * <p>
+     * 不走dx的main入口，main在失败时会直接System.exit结束整个进程，
+     * 这里调用dexer.Main.run，返回值非0时抛出异常
+     * <p>
+     * dx内部存在静态状态，以dx的Main类加锁，同一ClassLoader中的dx调用串行执行
+     *
+     * @param param dx命令行参数，开头的--dex可省略
+     * @throws Exception the exception
+     */
+    public void runDx(String... param) throws Exception {
+        String[] dexParam = param;
+        if (param.length > 0 && "--dex".equals(param[0])) {
+            dexParam = Arrays.copyOfRange(param, 1, param.length);
+        }
+        Class<?> dxClazz = dxLoader.loadClass(DX_MAIN);
+        Class<?> argumentsClazz = dxLoader.loadClass(DX_ARGUMENTS);
+        Method runMethod = dxClazz.getMethod("run", argumentsClazz);
+        try {
+            Object arguments = argumentsClazz.getConstructor().newInstance();
+            argumentsClazz.getMethod("parse", String[].class).invoke(arguments, (Object) dexParam);
+            int result;
+            synchronized (dxClazz) {
+                result = (Integer) runMethod.invoke(null, arguments);
+            }
+            if (result != 0) {
+                throw new IOException("dx编译失败，返回值：" + result);
+            }
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+}
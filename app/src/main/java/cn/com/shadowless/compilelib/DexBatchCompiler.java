@@ -0,0 +1,390 @@
+package cn.com.shadowless.compilelib;
+
+import org.codehaus.commons.compiler.CompileException;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 命令行批量编译，在服务端将源码目录预编译为可直接加载的dex
+ * <p>
+ * 源码目录整体编译，之后按引用关系分组输出dex：存在直接或间接引用（无论方向）的类，
+ * 即引用图的同一个连通分量，输出到同一个dex，以其中字典序最小的顶层类命名，
+ * 保证每个dex单独由DexClassLoader加载时不会缺少源码目录内的类
+ * <p>
+ * 源码编译为单线程的一次完整编译，dx阶段每个线程使用独立ClassLoader加载的dx并行执行
+ * <p>
+ * 用法：DexBatchCompiler &lt;源码目录&gt; &lt;dex输出目录&gt; [线程数]
+ *
+ * @author sHadowLess
+ */
+public final class DexBatchCompiler {
+
+    /**
+     * The constant CLASS_CACHE_DIR.
+     */
+    private static final String CLASS_CACHE_DIR = ".classes";
+
+    /**
+     * The Core.
+     */
+    private final CompileCore core;
+
+    /**
+     * 每个线程独立的dx，dx内部的静态状态按ClassLoader隔离
+     */
+    private final ThreadLocal<CompileCore> dxCore;
+
+    /**
+     * The Source dir.
+     */
+    private final File sourceDir;
+
+    /**
+     * The Output dir.
+     */
+    private final File outputDir;
+
+    /**
+     * The Thread count.
+     */
+    private final int threadCount;
+
+    /**
+     * Instantiates a new Dex batch compiler.
+     *
+     * @param sourceDir   the source dir
+     * @param outputDir   the output dir
+     * @param threadCount the thread count
+     */
+    public DexBatchCompiler(File sourceDir, File outputDir, int threadCount) {
+        if (!sourceDir.isDirectory()) {
+            throw new RuntimeException("源码路径必须是文件夹");
+        }
+        if (!outputDir.exists()) {
+            outputDir.mkdirs();
+        }
+        if (!outputDir.isDirectory()) {
+            throw new RuntimeException("dex输出路径必须是文件夹");
+        }
+        ClassLoader loader = DexBatchCompiler.class.getClassLoader();
+        if (!CompileCore.isDxAvailable(loader)) {
+            throw new UnsupportedOperationException("当前环境无DX工具类，无法进行动态编译");
+        }
+        this.core = new CompileCore(true, loader);
+        this.dxCore = new ThreadLocal<CompileCore>() {
+            @Override
+            protected CompileCore initialValue() {
+                return new CompileCore(true, CompileCore.newIsolatedDxLoader(loader));
+            }
+        };
+        this.sourceDir = sourceDir;
+        this.outputDir = outputDir;
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    /**
+     * The entry point of application.
+     *
+     * @param args the input arguments
+     */
+    public static void main(String[] args) {
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        if (args.length > 2) {
+            try {
+                threadCount = Integer.parseInt(args[2]);
+            } catch (NumberFormatException e) {
+                threadCount = 0;
+            }
+        }
+        if (args.length < 2 || args.length > 3 || threadCount < 1) {
+            System.err.println("用法：DexBatchCompiler <源码目录> <dex输出目录> [线程数]");
+            System.exit(2);
+            return;
+        }
+        DexBatchCompiler compiler = new DexBatchCompiler(new File(args[0]), new File(args[1]), threadCount);
+        int failCount = compiler.compileAll();
+        System.exit(failCount == 0 ? 0 : 1);
+    }
+
+    /**
+     * 将源码目录作为一个整体编译（源文件之间可以互相引用），再按引用关系分组并行输出dex
+     *
+     * @return 失败数量
+     */
+    public int compileAll() {
+        List<File> javaFiles = new ArrayList<>();
+        collectJavaFiles(sourceDir, javaFiles);
+        Map<String, byte[]> classBytesMap;
+        try {
+            classBytesMap = core.compileTree(javaFiles, StandardCharsets.UTF_8.name(), DexBatchCompiler.class.getClassLoader(), (s, location) ->
+                    System.err.println(Diagnostic.error(s, location).format()), null);
+        } catch (CompileException e) {
+            System.err.println(e.getLocation() == null ? e.getMessage() : Diagnostic.error(e).format());
+            System.out.println("编译失败：共" + javaFiles.size() + "个源文件");
+            return javaFiles.size();
+        } catch (IOException e) {
+            System.err.println("编译失败：" + e);
+            return javaFiles.size();
+        }
+        Map<String, Map<String, byte[]>> units;
+        try {
+            units = groupByReference(classBytesMap);
+        } catch (IOException e) {
+            System.err.println("解析class失败：" + e);
+            return javaFiles.size();
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<String> unitNames = new ArrayList<>(units.keySet());
+        List<Future<Boolean>> futures = new ArrayList<>(unitNames.size());
+        for (String unitName : unitNames) {
+            futures.add(executor.submit(() -> dexUnit(unitName, units.get(unitName))));
+        }
+        int failCount = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                if (!futures.get(i).get()) {
+                    failCount++;
+                }
+            } catch (Exception e) {
+                failCount++;
+                System.err.println("dex编译失败：" + unitNames.get(i) + "\n" + e);
+            }
+        }
+        executor.shutdown();
+        CompileCore.deleteDirectory(new File(outputDir, CLASS_CACHE_DIR));
+        System.out.println("编译完成：成功" + (unitNames.size() - failCount) + "个，失败" + failCount + "个");
+        return failCount;
+    }
+
+    /**
+     * 按引用图的连通分量分组，内部类总是与其顶层类同组
+     *
+     * @param classBytesMap the class bytes map
+     * @return key为分组内字典序最小的顶层类名，value为该分组的全部class资源
+     * @throws IOException the io exception
+     */
+    private Map<String, Map<String, byte[]>> groupByReference(Map<String, byte[]> classBytesMap) throws IOException {
+        Map<String, String> unitNames = new HashMap<>(classBytesMap.size());
+        Map<String, String> parents = new HashMap<>();
+        for (String resourceName : classBytesMap.keySet()) {
+            String internalName = resourceName.substring(0, resourceName.length() - ".class".length());
+            String unitName = getUnitName(internalName);
+            unitNames.put(internalName, unitName);
+            parents.put(unitName, unitName);
+        }
+        for (Map.Entry<String, byte[]> entry : classBytesMap.entrySet()) {
+            String resourceName = entry.getKey();
+            String unitName = unitNames.get(resourceName.substring(0, resourceName.length() - ".class".length()));
+            for (String referencedType : readReferencedTypes(entry.getValue())) {
+                String referencedUnit = unitNames.get(referencedType);
+                if (referencedUnit != null) {
+                    union(parents, unitName, referencedUnit);
+                }
+            }
+        }
+        Map<String, String> groupNames = new HashMap<>();
+        for (String unitName : parents.keySet()) {
+            String root = find(parents, unitName);
+            String groupName = groupNames.get(root);
+            if (groupName == null || unitName.compareTo(groupName) < 0) {
+                groupNames.put(root, unitName);
+            }
+        }
+        Map<String, Map<String, byte[]>> groups = new TreeMap<>();
+        for (Map.Entry<String, byte[]> entry : classBytesMap.entrySet()) {
+            String resourceName = entry.getKey();
+            String unitName = unitNames.get(resourceName.substring(0, resourceName.length() - ".class".length()));
+            String groupName = groupNames.get(find(parents, unitName));
+            Map<String, byte[]> group = groups.get(groupName);
+            if (group == null) {
+                group = new TreeMap<>();
+                groups.put(groupName, group);
+            }
+            group.put(resourceName, entry.getValue());
+        }
+        return groups;
+    }
+
+    /**
+     * 由内部名得到顶层类名，如com/example/Test$Inner -> com.example.Test
+     *
+     * @param internalName the internal name
+     * @return the unit name
+     */
+    private static String getUnitName(String internalName) {
+        int innerIndex = internalName.indexOf('$', internalName.lastIndexOf('/') + 1);
+        return (innerIndex == -1 ? internalName : internalName.substring(0, innerIndex)).replace('/', '.');
+    }
+
+    /**
+     * Find string.
+     *
+     * @param parents  the parents
+     * @param unitName the unit name
+     * @return the string
+     */
+    private static String find(Map<String, String> parents, String unitName) {
+        String root = unitName;
+        while (!root.equals(parents.get(root))) {
+            root = parents.get(root);
+        }
+        String current = unitName;
+        while (!current.equals(root)) {
+            String next = parents.get(current);
+            parents.put(current, root);
+            current = next;
+        }
+        return root;
+    }
+
+    /**
+     * Union.
+     *
+     * @param parents the parents
+     * @param a       the a
+     * @param b       the b
+     */
+    private static void union(Map<String, String> parents, String a, String b) {
+        String rootA = find(parents, a);
+        String rootB = find(parents, b);
+        if (!rootA.equals(rootB)) {
+            parents.put(rootA, rootB);
+        }
+    }
+
+    /**
+     * 读取class常量池中出现的类型内部名
+     * <p>
+     * 类引用、字段和方法描述符、泛型签名均以Utf8常量保存，这里从全部Utf8常量中提取，
+     * 字符串常量中的类名（如Class.forName的参数）也一并视为引用
+     *
+     * @param classBytes the class bytes
+     * @return the set
+     * @throws IOException the io exception
+     */
+    private static Set<String> readReferencedTypes(byte[] classBytes) throws IOException {
+        Set<String> types = new HashSet<>();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(classBytes));
+        //magic、minor_version、major_version
+        in.skipBytes(8);
+        int constantPoolCount = in.readUnsignedShort();
+        for (int i = 1; i < constantPoolCount; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1:
+                    addTypes(in.readUTF(), types);
+                    break;
+                case 7:
+                case 8:
+                case 16:
+                case 19:
+                case 20:
+                    in.skipBytes(2);
+                    break;
+                case 15:
+                    in.skipBytes(3);
+                    break;
+                case 3:
+                case 4:
+                case 9:
+                case 10:
+                case 11:
+                case 12:
+                case 17:
+                case 18:
+                    in.skipBytes(4);
+                    break;
+                case 5:
+                case 6:
+                    //long和double占用两个常量池位置
+                    in.skipBytes(8);
+                    i++;
+                    break;
+                default:
+                    throw new IOException("无法解析的常量池类型：" + tag);
+            }
+        }
+        return types;
+    }
+
+    /**
+     * 将Utf8常量本身及其中的L...;片段作为候选类型
+     *
+     * @param value the value
+     * @param types the types
+     */
+    private static void addTypes(String value, Set<String> types) {
+        types.add(value);
+        types.add(value.replace('.', '/'));
+        int start = value.indexOf('L');
+        while (start != -1) {
+            int end = value.indexOf(';', start);
+            if (end == -1) {
+                break;
+            }
+            types.add(value.substring(start + 1, end));
+            start = value.indexOf('L', start + 1);
+        }
+    }
+
+    /**
+     * 将一个分组输出为dex，如com.example.Test -> com.example.Test.dex
+     *
+     * @param unitName the unit name
+     * @param unit     the unit
+     * @return the boolean
+     * @throws Exception the exception
+     */
+    private boolean dexUnit(String unitName, Map<String, byte[]> unit) throws Exception {
+        File classDir = new File(new File(outputDir, CLASS_CACHE_DIR), unitName);
+        CompileCore.deleteDirectory(classDir);
+        for (Map.Entry<String, byte[]> entry : unit.entrySet()) {
+            File classFile = new File(classDir, entry.getKey());
+            CompileCore.writeClassFile(classFile.getParent(), classFile.getName(), entry.getValue());
+        }
+        File dexFile = new File(outputDir, unitName + ".dex");
+        if (dexFile.exists()) {
+            dexFile.delete();
+        }
+        try {
+            dxCore.get().runDx("--dex", "--no-strict", "--output=" + dexFile.getAbsolutePath(), classDir.getAbsolutePath());
+        } finally {
+            CompileCore.deleteDirectory(classDir);
+        }
+        return dexFile.exists();
+    }
+
+    /**
+     * Collect java files.
+     *
+     * @param dir    the dir
+     * @param result the result
+     */
+    private void collectJavaFiles(File dir, List<File> result) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                collectJavaFiles(file, result);
+            } else if (file.getName().endsWith(".java")) {
+                result.add(file);
+            }
+        }
+    }
+}
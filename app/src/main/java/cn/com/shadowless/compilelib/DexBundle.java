@@ -0,0 +1,523 @@
+package cn.com.shadowless.compilelib;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * 单文件dex产物包，通过内存映射读取
+ * <p>
+ * 格式：头部（魔数、版本、dex数量、类数量、数据区偏移、头部与索引的CRC32）、
+ * dex表（dex名、数据区内偏移、长度、CRC32）、
+ * 类名索引（类名、所属dex序号、类自身的CRC32）、dex数据区
+ * <p>
+ * 类自身的CRC32见{@link DexClassNameReader#readClassCrc}，可只校验单个类而不必计算整个dex；
+ * 类引用的字符串、类型等dex内共享的数据由所属dex的CRC32校验
+ *
+ * @author sHadowLess
+ */
+public final class DexBundle implements Closeable {
+
+    /**
+     * The constant MAGIC.
+     */
+    private static final int MAGIC = 0x434C4442;
+
+    /**
+     * The constant VERSION.
+     */
+    private static final int VERSION = 3;
+
+    /**
+     * The constant HEADER_SIZE.
+     */
+    private static final int HEADER_SIZE = 32;
+
+    /**
+     * 头部中参与CRC32计算的长度，即CRC32字段之前的部分
+     */
+    private static final int HEADER_CRC_SIZE = 24;
+
+    /**
+     * The Channel.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The Buffer.
+     */
+    private final MappedByteBuffer buffer;
+
+    /**
+     * The Dex entries.
+     */
+    private final List<DexEntry> dexEntries;
+
+    /**
+     * The Class index.
+     */
+    private final Map<String, ClassEntry> classIndex;
+
+    /**
+     * Instantiates a new Dex bundle.
+     *
+     * @param channel    the channel
+     * @param buffer     the buffer
+     * @param dexEntries the dex entries
+     * @param classIndex the class index
+     */
+    private DexBundle(FileChannel channel, MappedByteBuffer buffer, List<DexEntry> dexEntries, Map<String, ClassEntry> classIndex) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.dexEntries = dexEntries;
+        this.classIndex = classIndex;
+    }
+
+    /**
+     * 将多个dex写入一个产物包
+     *
+     * @param bundleFile  the bundle file
+     * @param dexFileList the dex file list
+     * @throws IOException the io exception
+     */
+    public static void write(File bundleFile, List<File> dexFileList) throws IOException {
+        List<byte[]> payloads = new ArrayList<>(dexFileList.size());
+        long[] crcs = new long[dexFileList.size()];
+        Map<String, ClassEntry> classOwner = new TreeMap<>();
+        for (int i = 0; i < dexFileList.size(); i++) {
+            checkDexName(dexFileList.get(i).getName());
+            byte[] payload = readFully(dexFileList.get(i));
+            CRC32 crc32 = new CRC32();
+            crc32.update(payload, 0, payload.length);
+            crcs[i] = crc32.getValue();
+            payloads.add(payload);
+            for (Map.Entry<String, Long> entry : DexClassNameReader.readClassCrcs(ByteBuffer.wrap(payload)).entrySet()) {
+                classOwner.put(entry.getKey(), new ClassEntry(i, entry.getValue()));
+            }
+        }
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream indexOut = new DataOutputStream(index);
+        long offset = 0;
+        for (int i = 0; i < payloads.size(); i++) {
+            writeString(indexOut, dexFileList.get(i).getName());
+            indexOut.writeLong(offset);
+            indexOut.writeInt(payloads.get(i).length);
+            indexOut.writeLong(crcs[i]);
+            offset += payloads.get(i).length;
+        }
+        for (Map.Entry<String, ClassEntry> entry : classOwner.entrySet()) {
+            writeString(indexOut, entry.getKey());
+            indexOut.writeInt(entry.getValue().dexIndex);
+            indexOut.writeLong(entry.getValue().crc);
+        }
+        indexOut.flush();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_CRC_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(payloads.size());
+        header.putInt(classOwner.size());
+        header.putLong(HEADER_SIZE + index.size());
+        byte[] indexBytes = index.toByteArray();
+        CRC32 indexCrc = new CRC32();
+        indexCrc.update(header.array(), 0, HEADER_CRC_SIZE);
+        indexCrc.update(indexBytes, 0, indexBytes.length);
+        //先写临时文件再替换，不截断其他DexBundle正在映射的旧文件
+        File tempFile = CompileCore.createTempFile(bundleFile);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tempFile))) {
+                out.write(header.array());
+                out.writeLong(indexCrc.getValue());
+                out.write(indexBytes);
+                for (byte[] payload : payloads) {
+                    out.write(payload);
+                }
+                out.flush();
+            }
+            CompileCore.replaceFile(tempFile, bundleFile);
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * 内存映射打开产物包，仅解析头部和索引
+     *
+     * @param bundleFile the bundle file
+     * @return the dex bundle
+     * @throws IOException the io exception
+     */
+    public static DexBundle open(File bundleFile) throws IOException {
+        FileChannel channel = new RandomAccessFile(bundleFile, "r").getChannel();
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            String corrupted = "dex产物包已损坏：" + bundleFile.getAbsolutePath();
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+                throw new IOException("不是有效的dex产物包：" + bundleFile.getAbsolutePath());
+            }
+            if (buffer.getInt() != VERSION) {
+                throw new IOException("不支持的dex产物包版本：" + bundleFile.getAbsolutePath());
+            }
+            int dexCount = buffer.getInt();
+            int classCount = buffer.getInt();
+            long dataOffset = buffer.getLong();
+            long indexCrc = buffer.getLong();
+            if (dexCount < 0 || classCount < 0 || dataOffset < HEADER_SIZE || dataOffset > buffer.limit()) {
+                throw new IOException(corrupted);
+            }
+            if (crc(buffer, 0, HEADER_CRC_SIZE, HEADER_SIZE, (int) dataOffset - HEADER_SIZE) != indexCrc) {
+                throw new IOException(corrupted);
+            }
+            List<DexEntry> dexEntries = new ArrayList<>(dexCount);
+            for (int i = 0; i < dexCount; i++) {
+                String dexName = readString(buffer, (int) dataOffset, corrupted);
+                checkDexName(dexName);
+                long relativeOffset = readLong(buffer, (int) dataOffset, corrupted);
+                int length = readInt(buffer, (int) dataOffset, corrupted);
+                long crc = readLong(buffer, (int) dataOffset, corrupted);
+                if (relativeOffset < 0 || length < 0 || relativeOffset > buffer.limit() - dataOffset - length) {
+                    throw new IOException(corrupted);
+                }
+                dexEntries.add(new DexEntry(dexName, (int) (dataOffset + relativeOffset), length, crc));
+            }
+            Map<String, ClassEntry> classIndex = new HashMap<>();
+            for (int i = 0; i < classCount; i++) {
+                String className = readString(buffer, (int) dataOffset, corrupted);
+                int dexIndex = readInt(buffer, (int) dataOffset, corrupted);
+                if (dexIndex < 0 || dexIndex >= dexCount) {
+                    throw new IOException(corrupted);
+                }
+                classIndex.put(className, new ClassEntry(dexIndex, readLong(buffer, (int) dataOffset, corrupted)));
+            }
+            if (buffer.position() != dataOffset) {
+                throw new IOException(corrupted);
+            }
+            return new DexBundle(channel, buffer, dexEntries, classIndex);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Contains boolean.
+     *
+     * @param className the class name
+     * @return the boolean
+     */
+    public boolean contains(String className) {
+        return classIndex.containsKey(className);
+    }
+
+    /**
+     * Gets class names.
+     *
+     * @return the class names
+     */
+    public Set<String> getClassNames() {
+        return Collections.unmodifiableSet(classIndex.keySet());
+    }
+
+    /**
+     * 获取类所在的dex名
+     *
+     * @param className the class name
+     * @return the dex name，不存在则为null
+     */
+    public String getDexName(String className) {
+        ClassEntry classEntry = classIndex.get(className);
+        return classEntry == null ? null : dexEntries.get(classEntry.dexIndex).name;
+    }
+
+    /**
+     * 校验全部dex数据
+     *
+     * @return the boolean
+     */
+    public boolean validate() {
+        for (DexEntry dexEntry : dexEntries) {
+            if (crc(dexEntry) != dexEntry.crc) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 只校验单个类自身的数据
+     *
+     * @param className the class name
+     * @return the boolean
+     */
+    public boolean validate(String className) {
+        ClassEntry classEntry = classIndex.get(className);
+        if (classEntry == null) {
+            return false;
+        }
+        try {
+            return DexClassNameReader.readClassCrc(slice(dexEntries.get(classEntry.dexIndex)), className) == classEntry.crc;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 校验并提取类所在的dex到指定文件夹
+     *
+     * @param className the class name
+     * @param dir       the dir
+     * @return the dex file
+     * @throws IOException the io exception
+     */
+    public File extractDex(String className, File dir) throws IOException {
+        ClassEntry classEntry = classIndex.get(className);
+        if (classEntry == null) {
+            throw new IOException("dex产物包中不存在该类：" + className);
+        }
+        DexEntry dexEntry = dexEntries.get(classEntry.dexIndex);
+        if (crc(dexEntry) != dexEntry.crc) {
+            throw new IOException("dex产物包校验失败：" + dexEntry.name);
+        }
+        byte[] payload = new byte[dexEntry.length];
+        slice(dexEntry).get(payload);
+        File dexFile = new File(dir, dexEntry.name);
+        //先写临时文件再替换，不改写已有DexClassLoader正在使用的旧dex
+        File tempFile = CompileCore.createTempFile(dexFile);
+        try {
+            try (FileOutputStream fos = new FileOutputStream(tempFile)) {
+                fos.write(payload, 0, payload.length);
+                fos.flush();
+            }
+            CompileCore.replaceFile(tempFile, dexFile);
+        } finally {
+            tempFile.delete();
+        }
+        return dexFile;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * dex数据对应的buffer，position为0，limit为dex长度
+     *
+     * @param dexEntry the dex entry
+     * @return the byte buffer
+     */
+    private ByteBuffer slice(DexEntry dexEntry) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(dexEntry.offset);
+        slice.limit(dexEntry.offset + dexEntry.length);
+        return slice.slice();
+    }
+
+    /**
+     * Crc long.
+     *
+     * @param dexEntry the dex entry
+     * @return the long
+     */
+    private long crc(DexEntry dexEntry) {
+        return crc(buffer, dexEntry.offset, dexEntry.length);
+    }
+
+    /**
+     * 依次计算多个区段的CRC32
+     *
+     * @param buffer        the buffer
+     * @param offsetLengths 区段的偏移和长度，成对出现
+     * @return the long
+     */
+    private static long crc(ByteBuffer buffer, int... offsetLengths) {
+        ByteBuffer slice = buffer.duplicate();
+        byte[] chunk = new byte[8192];
+        CRC32 crc32 = new CRC32();
+        for (int i = 0; i < offsetLengths.length; i += 2) {
+            slice.position(offsetLengths[i]);
+            int remaining = offsetLengths[i + 1];
+            while (remaining > 0) {
+                int count = Math.min(remaining, chunk.length);
+                slice.get(chunk, 0, count);
+                crc32.update(chunk, 0, count);
+                remaining -= count;
+            }
+        }
+        return crc32.getValue();
+    }
+
+    /**
+     * 校验dex名，只允许不含路径的xxx.dex，防止提取时写到目标文件夹之外
+     *
+     * @param dexName the dex name
+     * @throws IOException the io exception
+     */
+    private static void checkDexName(String dexName) throws IOException {
+        if (!dexName.endsWith(".dex") || dexName.indexOf('/') != -1 || dexName.indexOf('\\') != -1 || dexName.contains("..")) {
+            throw new IOException("非法的dex名：" + dexName);
+        }
+    }
+
+    /**
+     * Write string.
+     *
+     * @param out   the out
+     * @param value the value
+     * @throws IOException the io exception
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * 读取索引区内的字符串，越过索引区则抛出异常
+     *
+     * @param buffer    the buffer
+     * @param indexEnd  the index end
+     * @param corrupted the corrupted
+     * @return the string
+     * @throws IOException the io exception
+     */
+    private static String readString(ByteBuffer buffer, int indexEnd, String corrupted) throws IOException {
+        int length = readInt(buffer, indexEnd, corrupted);
+        if (length < 0 || length > indexEnd - buffer.position()) {
+            throw new IOException(corrupted);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read int.
+     *
+     * @param buffer    the buffer
+     * @param indexEnd  the index end
+     * @param corrupted the corrupted
+     * @return the int
+     * @throws IOException the io exception
+     */
+    private static int readInt(ByteBuffer buffer, int indexEnd, String corrupted) throws IOException {
+        if (indexEnd - buffer.position() < 4) {
+            throw new IOException(corrupted);
+        }
+        return buffer.getInt();
+    }
+
+    /**
+     * Read long.
+     *
+     * @param buffer    the buffer
+     * @param indexEnd  the index end
+     * @param corrupted the corrupted
+     * @return the long
+     * @throws IOException the io exception
+     */
+    private static long readLong(ByteBuffer buffer, int indexEnd, String corrupted) throws IOException {
+        if (indexEnd - buffer.position() < 8) {
+            throw new IOException(corrupted);
+        }
+        return buffer.getLong();
+    }
+
+    /**
+     * Read fully byte [ ].
+     *
+     * @param file the file
+     * @return the byte [ ]
+     * @throws IOException the io exception
+     */
+    private static byte[] readFully(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+            return bytes;
+        }
+    }
+
+    /**
+     * The type Dex entry.
+     */
+    private static final class DexEntry {
+
+        /**
+         * The Name.
+         */
+        private final String name;
+
+        /**
+         * The Offset.
+         */
+        private final int offset;
+
+        /**
+         * The Length.
+         */
+        private final int length;
+
+        /**
+         * The Crc.
+         */
+        private final long crc;
+
+        /**
+         * Instantiates a new Dex entry.
+         *
+         * @param name   the name
+         * @param offset the offset
+         * @param length the length
+         * @param crc    the crc
+         */
+        private DexEntry(String name, int offset, int length, long crc) {
+            this.name = name;
+            this.offset = offset;
+            this.length = length;
+            this.crc = crc;
+        }
+    }
+
+    /**
+     * The type Class entry.
+     */
+    private static final class ClassEntry {
+
+        /**
+         * The Dex index.
+         */
+        private final int dexIndex;
+
+        /**
+         * 类自身的CRC32
+         */
+        private final long crc;
+
+        /**
+         * Instantiates a new Class entry.
+         *
+         * @param dexIndex the dex index
+         * @param crc      the crc
+         */
+        private ClassEntry(int dexIndex, long crc) {
+            this.dexIndex = dexIndex;
+            this.crc = crc;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package cn.com.shadowless.compilelib;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 直接解析dex文件头读取其中定义的类名，无需DexFile
+ * <p>
+ * 也可计算单个类的CRC32，范围为该类的class_def、class_data以及各方法的code_item，
+ * 类引用的字符串、类型等dex内共享的数据不在其中
+ *
+ * @author sHadowLess
+ */
+public final class DexClassNameReader {
+
+    /**
+     * The constant FILE_SIZE.
+     */
+    private static final int FILE_SIZE = 0x20;
+
+    /**
+     * The constant STRING_IDS_OFF.
+     */
+    private static final int STRING_IDS_OFF = 0x3C;
+
+    /**
+     * The constant TYPE_IDS_OFF.
+     */
+    private static final int TYPE_IDS_OFF = 0x44;
+
+    /**
+     * The constant CLASS_DEFS_SIZE.
+     */
+    private static final int CLASS_DEFS_SIZE = 0x60;
+
+    /**
+     * The constant CLASS_DEFS_OFF.
+     */
+    private static final int CLASS_DEFS_OFF = 0x64;
+
+    /**
+     * The constant CLASS_DEF_ITEM_SIZE.
+     */
+    private static final int CLASS_DEF_ITEM_SIZE = 32;
+
+    /**
+     * class_def中class_data_off的偏移
+     */
+    private static final int CLASS_DATA_OFF = 24;
+
+    /**
+     * Instantiates a new Dex class name reader.
+     */
+    private DexClassNameReader() {
+    }
+
+    /**
+     * Read class names.
+     *
+     * @param dexFile the dex file
+     * @return the list
+     * @throws IOException the io exception
+     */
+    public static List<String> read(File dexFile) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(dexFile, "r");
+             FileChannel channel = raf.getChannel()) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Read class names.
+     *
+     * @param dex the dex
+     * @return the list
+     * @throws IOException the io exception
+     */
+    public static List<String> read(ByteBuffer dex) throws IOException {
+        ByteBuffer buffer = checkHeader(dex);
+        try {
+            int classDefsSize = buffer.getInt(CLASS_DEFS_SIZE);
+            List<String> classNames = new ArrayList<>();
+            for (int i = 0; i < classDefsSize; i++) {
+                classNames.add(readClassName(buffer, i));
+            }
+            return classNames;
+        } catch (IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("dex文件已损坏", e);
+        }
+    }
+
+    /**
+     * 计算dex中全部类各自的CRC32
+     *
+     * @param dex the dex
+     * @return key为类名，value为CRC32
+     * @throws IOException the io exception
+     */
+    public static Map<String, Long> readClassCrcs(ByteBuffer dex) throws IOException {
+        ByteBuffer buffer = checkHeader(dex);
+        try {
+            int classDefsSize = buffer.getInt(CLASS_DEFS_SIZE);
+            Map<String, Long> classCrcs = new HashMap<>();
+            for (int i = 0; i < classDefsSize; i++) {
+                classCrcs.put(readClassName(buffer, i), classCrc(buffer, i));
+            }
+            return classCrcs;
+        } catch (IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("dex文件已损坏", e);
+        }
+    }
+
+    /**
+     * 只计算一个类的CRC32
+     *
+     * @param dex       the dex
+     * @param className the class name
+     * @return the crc，dex中不存在该类时为-1
+     * @throws IOException the io exception
+     */
+    public static long readClassCrc(ByteBuffer dex, String className) throws IOException {
+        ByteBuffer buffer = checkHeader(dex);
+        try {
+            int classDefsSize = buffer.getInt(CLASS_DEFS_SIZE);
+            for (int i = 0; i < classDefsSize; i++) {
+                if (className.equals(readClassName(buffer, i))) {
+                    return classCrc(buffer, i);
+                }
+            }
+            return -1;
+        } catch (IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("dex文件已损坏", e);
+        }
+    }
+
+    /**
+     * 校验dex文件头，返回小端序的buffer
+     *
+     * @param dex the dex
+     * @return the byte buffer
+     * @throws IOException the io exception
+     */
+    private static ByteBuffer checkHeader(ByteBuffer dex) throws IOException {
+        ByteBuffer buffer = dex.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.limit() < CLASS_DEFS_OFF + 4 || buffer.get(0) != 'd' || buffer.get(1) != 'e' || buffer.get(2) != 'x') {
+            throw new IOException("不是有效的dex文件");
+        }
+        if (buffer.getInt(FILE_SIZE) != buffer.limit()) {
+            throw new IOException("dex文件不完整");
+        }
+        return buffer;
+    }
+
+    /**
+     * 读取第index个class_def的类名
+     *
+     * @param buffer the buffer
+     * @param index  the index
+     * @return the string
+     */
+    private static String readClassName(ByteBuffer buffer, int index) {
+        int classIdx = buffer.getInt(buffer.getInt(CLASS_DEFS_OFF) + index * CLASS_DEF_ITEM_SIZE);
+        int descriptorIdx = buffer.getInt(buffer.getInt(TYPE_IDS_OFF) + classIdx * 4);
+        int stringDataOff = buffer.getInt(buffer.getInt(STRING_IDS_OFF) + descriptorIdx * 4);
+        String descriptor = readMutf8(buffer, stringDataOff);
+        return descriptor.substring(1, descriptor.length() - 1).replace('/', '.');
+    }
+
+    /**
+     * 计算第index个类的CRC32：class_def、class_data_item、各方法的code_item
+     *
+     * @param buffer the buffer
+     * @param index  the index
+     * @return the long
+     */
+    private static long classCrc(ByteBuffer buffer, int index) {
+        CRC32 crc32 = new CRC32();
+        int classDefOff = buffer.getInt(CLASS_DEFS_OFF) + index * CLASS_DEF_ITEM_SIZE;
+        update(crc32, buffer, classDefOff, classDefOff + CLASS_DEF_ITEM_SIZE);
+        int classDataOff = buffer.getInt(classDefOff + CLASS_DATA_OFF);
+        if (classDataOff == 0) {
+            return crc32.getValue();
+        }
+        ByteBuffer cursor = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        cursor.position(classDataOff);
+        int fieldCount = readUleb128(cursor) + readUleb128(cursor);
+        int methodCount = readUleb128(cursor) + readUleb128(cursor);
+        for (int i = 0; i < fieldCount; i++) {
+            //field_idx_diff、access_flags
+            readUleb128(cursor);
+            readUleb128(cursor);
+        }
+        List<Integer> codeOffList = new ArrayList<>();
+        for (int i = 0; i < methodCount; i++) {
+            //method_idx_diff、access_flags、code_off
+            readUleb128(cursor);
+            readUleb128(cursor);
+            int codeOff = readUleb128(cursor);
+            if (codeOff != 0) {
+                codeOffList.add(codeOff);
+            }
+        }
+        update(crc32, buffer, classDataOff, cursor.position());
+        for (int codeOff : codeOffList) {
+            update(crc32, buffer, codeOff, codeItemEnd(cursor, codeOff));
+        }
+        return crc32.getValue();
+    }
+
+    /**
+     * 计算code_item的结束位置
+     *
+     * @param cursor  the cursor
+     * @param codeOff the code off
+     * @return the int
+     */
+    private static int codeItemEnd(ByteBuffer cursor, int codeOff) {
+        int triesSize = cursor.getShort(codeOff + 6) & 0xFFFF;
+        int insnsSize = cursor.getInt(codeOff + 12);
+        if (insnsSize < 0) {
+            throw new IndexOutOfBoundsException("insns_size越界：" + insnsSize);
+        }
+        long end = codeOff + 16L + insnsSize * 2L;
+        if (triesSize == 0) {
+            return checkOffset(cursor, end);
+        }
+        if ((insnsSize & 1) != 0) {
+            end += 2;
+        }
+        end += triesSize * 8L;
+        cursor.position(checkOffset(cursor, end));
+        int handlerListSize = readUleb128(cursor);
+        for (int i = 0; i < handlerListSize; i++) {
+            int size = readSleb128(cursor);
+            for (int j = 0; j < Math.abs(size); j++) {
+                //type_idx、addr
+                readUleb128(cursor);
+                readUleb128(cursor);
+            }
+            if (size <= 0) {
+                //catch_all_addr
+                readUleb128(cursor);
+            }
+        }
+        return cursor.position();
+    }
+
+    /**
+     * Check offset int.
+     *
+     * @param buffer the buffer
+     * @param offset the offset
+     * @return the int
+     */
+    private static int checkOffset(ByteBuffer buffer, long offset) {
+        if (offset > buffer.limit()) {
+            throw new IndexOutOfBoundsException("偏移越界：" + offset);
+        }
+        return (int) offset;
+    }
+
+    /**
+     * Update.
+     *
+     * @param crc32  the crc 32
+     * @param buffer the buffer
+     * @param start  the start
+     * @param end    the end
+     */
+    private static void update(CRC32 crc32, ByteBuffer buffer, int start, int end) {
+        if (start < 0 || end < start || end > buffer.limit()) {
+            throw new IndexOutOfBoundsException("区段越界：" + start + "-" + end);
+        }
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(start);
+        byte[] chunk = new byte[Math.min(8192, end - start)];
+        int remaining = end - start;
+        while (remaining > 0) {
+            int count = Math.min(remaining, chunk.length);
+            slice.get(chunk, 0, count);
+            crc32.update(chunk, 0, count);
+            remaining -= count;
+        }
+    }
+
+    /**
+     * Read uleb 128 int.
+     *
+     * @param cursor the cursor
+     * @return the int
+     */
+    private static int readUleb128(ByteBuffer cursor) {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = cursor.get() & 0xFF;
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("uleb128格式错误");
+    }
+
+    /**
+     * Read sleb 128 int.
+     *
+     * @param cursor the cursor
+     * @return the int
+     */
+    private static int readSleb128(ByteBuffer cursor) {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = cursor.get() & 0xFF;
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                int bits = shift + 7;
+                return bits < 32 ? (result << (32 - bits)) >> (32 - bits) : result;
+            }
+        }
+        throw new IllegalArgumentException("sleb128格式错误");
+    }
+
+    /**
+     * 读取string_data_item，跳过uleb128长度后按MUTF-8解码
+     *
+     * @param buffer the buffer
+     * @param offset the offset
+     * @return the string
+     */
+    private static String readMutf8(ByteBuffer buffer, int offset) {
+        int position = offset;
+        while ((buffer.get(position++) & 0x80) != 0) {
+            //跳过uleb128
+        }
+        StringBuilder builder = new StringBuilder();
+        while (true) {
+            int a = buffer.get(position++) & 0xFF;
+            if (a == 0) {
+                break;
+            }
+            if (a < 0x80) {
+                builder.append((char) a);
+            } else if ((a & 0xE0) == 0xC0) {
+                int b = buffer.get(position++) & 0x3F;
+                builder.append((char) (((a & 0x1F) << 6) | b));
+            } else {
+                int b = buffer.get(position++) & 0x3F;
+                int c = buffer.get(position++) & 0x3F;
+                builder.append((char) (((a & 0x0F) << 12) | (b << 6) | c));
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,255 @@
+package cn.com.shadowless.compilelib;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 持久化的类名到dex名路由索引
+ * <p>
+ * 每行一条记录：类名\tdex名，同一个类可以由多个dex定义，按登记先后保存，最后登记的dex优先；
+ * 某个dex被重新编译或删除后，仍定义该类的其他dex继续保留在索引中
+ * <p>
+ * 索引在第一次使用时才加载，索引文件不存在或已损坏时扫描dex文件夹重建，
+ * 避免在主线程初始化时解析全部dex
+ *
+ * @author sHadowLess
+ */
+public final class DexRouteIndex {
+
+    /**
+     * The Index file.
+     */
+    private final File indexFile;
+
+    /**
+     * The Dex dir.
+     */
+    private final File dexDir;
+
+    /**
+     * key为类名，value为定义该类的dex名，最后一个优先
+     */
+    private final Map<String, Set<String>> routes = new HashMap<>();
+
+    /**
+     * The Loaded.
+     */
+    private boolean loaded;
+
+    /**
+     * Instantiates a new Dex route index.
+     *
+     * @param indexFile the index file
+     * @param dexDir    the dex dir
+     */
+    public DexRouteIndex(File indexFile, File dexDir) {
+        this.indexFile = indexFile;
+        this.dexDir = dexDir;
+    }
+
+    /**
+     * 获取类所在的dex名
+     *
+     * @param className the class name
+     * @return the dex name，不存在则为null
+     * @throws IOException the io exception
+     */
+    public synchronized String getDexName(String className) throws IOException {
+        ensureLoaded();
+        Set<String> dexNames = routes.get(className);
+        if (dexNames == null) {
+            return null;
+        }
+        String dexName = null;
+        for (String name : dexNames) {
+            dexName = name;
+        }
+        return dexName;
+    }
+
+    /**
+     * 用dex中定义的类名替换该dex原有的索引记录，该dex成为这些类的优先dex
+     *
+     * @param dexName    the dex name
+     * @param classNames the class names
+     * @throws IOException the io exception
+     */
+    public synchronized void update(String dexName, List<String> classNames) throws IOException {
+        ensureLoaded();
+        removeRoutes(dexName);
+        for (String className : classNames) {
+            addRoute(className, dexName);
+        }
+        save();
+    }
+
+    /**
+     * 移除dex的索引记录，其他dex中定义的同名类不受影响
+     *
+     * @param dexName the dex name
+     * @throws IOException the io exception
+     */
+    public synchronized void remove(String dexName) throws IOException {
+        ensureLoaded();
+        if (removeRoutes(dexName)) {
+            save();
+        }
+    }
+
+    /**
+     * 扫描dex文件夹下全部dex重建索引，无法解析的dex会被跳过，修改时间较新的dex优先
+     *
+     * @throws IOException the io exception
+     */
+    public synchronized void rebuild() throws IOException {
+        routes.clear();
+        File[] files = dexDir.listFiles();
+        if (files != null) {
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File o1, File o2) {
+                    return Long.compare(o1.lastModified(), o2.lastModified());
+                }
+            });
+            for (File file : files) {
+                String name = file.getName();
+                if (!file.isFile() || name.startsWith(".") || !name.endsWith(".dex")) {
+                    continue;
+                }
+                try {
+                    for (String className : DexClassNameReader.read(file)) {
+                        addRoute(className, name);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    //不是有效的dex，不登记
+                }
+            }
+        }
+        save();
+        loaded = true;
+    }
+
+    /**
+     * Clear.
+     */
+    public synchronized void clear() {
+        routes.clear();
+        indexFile.delete();
+        loaded = true;
+    }
+
+    /**
+     * 第一次使用时加载索引，索引文件不存在或已损坏时重建
+     *
+     * @throws IOException the io exception
+     */
+    private void ensureLoaded() throws IOException {
+        if (loaded) {
+            return;
+        }
+        if (indexFile.exists()) {
+            try {
+                load();
+                loaded = true;
+                return;
+            } catch (IOException e) {
+                //索引损坏时丢弃，扫描dex文件夹重建
+                routes.clear();
+                indexFile.delete();
+            }
+        }
+        rebuild();
+    }
+
+    /**
+     * Add route.
+     *
+     * @param className the class name
+     * @param dexName   the dex name
+     */
+    private void addRoute(String className, String dexName) {
+        Set<String> dexNames = routes.get(className);
+        if (dexNames == null) {
+            dexNames = new LinkedHashSet<>();
+            routes.put(className, dexNames);
+        }
+        dexNames.remove(dexName);
+        dexNames.add(dexName);
+    }
+
+    /**
+     * Remove routes boolean.
+     *
+     * @param dexName the dex name
+     * @return the boolean
+     */
+    private boolean removeRoutes(String dexName) {
+        boolean removed = false;
+        Iterator<Map.Entry<String, Set<String>>> iterator = routes.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Set<String> dexNames = iterator.next().getValue();
+            if (dexNames.remove(dexName)) {
+                removed = true;
+                if (dexNames.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Load.
+     *
+     * @throws IOException the io exception
+     */
+    private void load() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int index = line.indexOf('\t');
+                if (index > 0) {
+                    addRoute(line.substring(0, index), line.substring(index + 1));
+                }
+            }
+        }
+    }
+
+    /**
+     * 先写临时文件再替换，避免写入中断导致索引损坏
+     *
+     * @throws IOException the io exception
+     */
+    private void save() throws IOException {
+        File tempFile = new File(indexFile.getAbsolutePath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Set<String>> entry : routes.entrySet()) {
+                for (String dexName : entry.getValue()) {
+                    writer.write(entry.getKey());
+                    writer.write('\t');
+                    writer.write(dexName);
+                    writer.write('\n');
+                }
+            }
+            writer.flush();
+        }
+        if (!tempFile.renameTo(indexFile)) {
+            throw new IOException("dex路由索引写入失败：" + indexFile.getAbsolutePath());
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package cn.com.shadowless.compilelib;
+
+import org.codehaus.commons.compiler.CompileException;
+import org.codehaus.commons.compiler.Location;
+
+/**
+ * 编译诊断信息，文本只在调用format时才拼接
+ *
+ * @author sHadowLess
+ */
+public final class Diagnostic {
+
+    /**
+     * The Kind.
+     */
+    private final Kind kind;
+
+    /**
+     * The File name.
+     */
+    private final String fileName;
+
+    /**
+     * The Line number.
+     */
+    private final int lineNumber;
+
+    /**
+     * The Column number.
+     */
+    private final int columnNumber;
+
+    /**
+     * The Message.
+     */
+    private final String message;
+
+    /**
+     * Instantiates a new Diagnostic.
+     *
+     * @param kind     the kind
+     * @param message  the message
+     * @param location the location
+     */
+    private Diagnostic(Kind kind, String message, Location location) {
+        this.kind = kind;
+        this.message = message;
+        if (location == null) {
+            this.fileName = null;
+            this.lineNumber = -1;
+            this.columnNumber = -1;
+        } else {
+            this.fileName = location.getFileName();
+            this.lineNumber = location.getLineNumber();
+            this.columnNumber = location.getColumnNumber();
+        }
+    }
+
+    /**
+     * Error diagnostic.
+     *
+     * @param message  the message
+     * @param location the location
+     * @return the diagnostic
+     */
+    public static Diagnostic error(String message, Location location) {
+        return new Diagnostic(Kind.ERROR, message, location);
+    }
+
+    /**
+     * Warning diagnostic.
+     *
+     * @param message  the message
+     * @param location the location
+     * @return the diagnostic
+     */
+    public static Diagnostic warning(String message, Location location) {
+        return new Diagnostic(Kind.WARNING, message, location);
+    }
+
+    /**
+     * 由直接抛出的编译异常（如语法错误）生成错误信息，去掉异常信息中重复的位置前缀
+     *
+     * @param e the e
+     * @return the diagnostic
+     */
+    public static Diagnostic error(CompileException e) {
+        String message = e.getMessage();
+        Location location = e.getLocation();
+        if (location != null && message != null && message.startsWith(location + ": ")) {
+            message = message.substring(location.toString().length() + 2);
+        }
+        return new Diagnostic(Kind.ERROR, message, location);
+    }
+
+    /**
+     * Gets kind.
+     *
+     * @return the kind
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Gets file name.
+     *
+     * @return the file name
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Gets line number.
+     *
+     * @return the line number，无位置信息时为-1
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Gets column number.
+     *
+     * @return the column number，无位置信息时为-1
+     */
+    public int getColumnNumber() {
+        return columnNumber;
+    }
+
+    /**
+     * Gets message.
+     *
+     * @return the message
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Format string.
+     *
+     * @return the string
+     */
+    public String format() {
+        if (kind == Kind.ERROR) {
+            return "错误信息：" + message + "\n" + "错误文件名：" + fileName + "\n" + "错误行：" + "第" + lineNumber + "行" + "\n" + "错误列：" + "第" + columnNumber + "列";
+        }
+        return "警告信息：" + message + "\n" + "文件名：" + fileName + "\n" + "警告行：" + "第" + lineNumber + "行" + "\n" + "警告列：" + "第" + columnNumber + "列";
+    }
+
+    @Override
+    public String toString() {
+        return format();
+    }
+
+    /**
+     * The enum Kind.
+     */
+    public enum Kind {
+
+        /**
+         * Error kind.
+         */
+        ERROR,
+        /**
+         * Warning kind.
+         */
+        WARNING
+
+    }
+}
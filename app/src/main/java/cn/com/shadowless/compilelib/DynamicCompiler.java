@@ -8,27 +8,36 @@ import android.util.Log;
 import androidx.lifecycle.LifecycleOwner;
 import androidx.lifecycle.MutableLiveData;
 
+import org.codehaus.commons.compiler.CompileException;
 import org.codehaus.commons.compiler.ErrorHandler;
 import org.codehaus.commons.compiler.WarningHandler;
-import org.codehaus.janino.SimpleCompiler;
 import org.codehaus.janino.util.ClassFile;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.StringReader;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 import dalvik.system.BaseDexClassLoader;
 import dalvik.system.DexClassLoader;
 import dalvik.system.DexFile;
+import io.reactivex.rxjava3.core.BackpressureStrategy;
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.FlowableEmitter;
 import io.reactivex.rxjava3.core.Observable;
 
 /**
@@ -43,6 +52,16 @@ public final class DynamicCompiler {
      */
     private final String TAG = DynamicCompiler.class.getSimpleName();
 
+    /**
+     * 内存中缓存的片段实例上限，超出时淘汰最久未使用的
+     */
+    private static final int MAX_SNIPPET_INSTANCE_COUNT = 256;
+
+    /**
+     * 编译路径下保留的片段dex上限，超出时删除最久未使用的
+     */
+    private static final int MAX_SNIPPET_DEX_COUNT = 32;
+
     /**
      * The Context.
      */
@@ -73,11 +92,39 @@ public final class DynamicCompiler {
      */
     private final String opDexCachePath;
 
+    /**
+     * 内存预算、代码片段等编译的class暂存路径
+     * <p>
+     * 不能位于缓存路径下，compileClassFileToDex会将整个缓存路径交给dx递归读取，
+     * 暂存中的class会混入其中
+     */
+    private final String stagingPath;
+
     /**
      * The Statue data.
      */
     private final MutableLiveData<Statue> statueData;
 
+    /**
+     * The Core.
+     */
+    private final CompileCore core;
+
+    /**
+     * The Route index.
+     */
+    private final DexRouteIndex routeIndex;
+
+    /**
+     * The Loader cache.
+     */
+    private final Map<String, DexClassLoader> loaderCache;
+
+    /**
+     * key为片段hash，按访问顺序淘汰
+     */
+    private final Map<String, Object> snippetCache;
+
     /**
      * Instantiates a new Dynamic compiler ex.
      *
@@ -109,10 +156,20 @@ public final class DynamicCompiler {
         }
         this.cachePath = tempCachePath;
         this.opDexCachePath = context.getDir("opDex", Context.MODE_PRIVATE).getAbsolutePath();
+        this.stagingPath = context.getDir("compileStaging", Context.MODE_PRIVATE).getAbsolutePath();
         if (TextUtils.equals(this.compileDexPath, this.cachePath)) {
             throw new RuntimeException("缓存路径和dex编译路径不能一致");
         }
         this.statueData = new MutableLiveData<>();
+        this.core = new CompileCore(hasCompileLog, getLocalClassLoader());
+        this.routeIndex = new DexRouteIndex(new File(this.compileDexPath, ".dex_route_index"), new File(this.compileDexPath));
+        this.loaderCache = new HashMap<>();
+        this.snippetCache = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+                return size() > MAX_SNIPPET_INSTANCE_COUNT;
+            }
+        };
     }
 
 
@@ -123,13 +180,7 @@ public final class DynamicCompiler {
      */
     @SuppressLint("PrivateApi")
     private boolean isDxAvailable() {
-        try {
-            ClassLoader loader = getLocalClassLoader();
-            loader.loadClass("com.android.dx.command.Main");
-            return true;
-        } catch (ClassNotFoundException e) {
-            return false;
-        }
+        return CompileCore.isDxAvailable(getLocalClassLoader());
     }
 
     /**
@@ -138,10 +189,10 @@ public final class DynamicCompiler {
      * @return the error handler
      */
     private ErrorHandler getErrorHandler() {
-        return (s, location) -> {
-            String builder = "错误信息：" + s + "\n" + "错误文件名：" + location.getFileName() + "\n" + "错误行：" + "第" + location.getLineNumber() + "行" + "\n" + "错误列：" + "第" + location.getColumnNumber() + "列";
-            printCompileInfo(Statue.COMPILE_JAVA_ERROR, 2, builder.toString());
-        };
+        if (!hasCompileLog) {
+            return null;
+        }
+        return (s, location) -> printCompileInfo(Diagnostic.error(s, location));
     }
 
     /**
@@ -150,10 +201,10 @@ public final class DynamicCompiler {
      * @return the warning handler
      */
     private WarningHandler getWarningHandler() {
-        return (s, s1, location) -> {
-            String builder = "警告信息：" + s1 + "\n" + "文件名：" + location.getFileName() + "\n" + "警告行：" + "第" + location.getLineNumber() + "行" + "\n" + "警告列：" + "第" + location.getColumnNumber() + "列";
-            printCompileInfo(Statue.COMPILE_JAVA_WARNING, 1, builder.toString());
-        };
+        if (!hasCompileLog) {
+            return null;
+        }
+        return (s, s1, location) -> printCompileInfo(Diagnostic.warning(s1, location));
     }
 
     /**
@@ -287,24 +338,9 @@ public final class DynamicCompiler {
                     emitter.onError(new Throwable("传入map的key必须以.class结尾"));
                     return;
                 }
-                SimpleCompiler compiler = new SimpleCompiler();
-                if (hasCompileLog) {
-                    compiler.setDebuggingInformation(true, true, true);
-                    compiler.setCompileErrorHandler(getErrorHandler());
-                    compiler.setWarningHandler(getWarningHandler());
-                } else {
-                    compiler.setDebuggingInformation(false, false, false);
-                }
-                compiler.cook(originFileName, new StringReader(entry.getValue()));
-                ClassFile[] classFiles = compiler.getClassFiles();
-                byte[] classBytes = classFiles[0].toByteArray();
-                File dirs = new File(cachePath);
-                if (!dirs.exists()) {
-                    dirs.mkdirs();
-                }
-                try (FileOutputStream fos = new FileOutputStream(new File(cachePath, originFileName))) {
-                    fos.write(classBytes, 0, classBytes.length);
-                    fos.flush();
+                ClassFile[] classFiles = core.compile(originFileName, new StringReader(entry.getValue()), getErrorHandler(), getWarningHandler());
+                try {
+                    CompileCore.writeClassFile(cachePath, originFileName, classFiles[0].toByteArray());
                 } catch (IOException e) {
                     emitter.onNext(false);
                     emitter.onComplete();
@@ -356,31 +392,170 @@ public final class DynamicCompiler {
                     emitter.onError(new Throwable("传入map的key的File文件名必须以.class结尾"));
                     return;
                 }
-                SimpleCompiler compiler = new SimpleCompiler();
-                if (hasCompileLog) {
-                    compiler.setDebuggingInformation(true, true, true);
-                    compiler.setCompileErrorHandler(getErrorHandler());
-                    compiler.setWarningHandler(getWarningHandler());
-                } else {
-                    compiler.setDebuggingInformation(false, false, false);
-                }
-                compiler.cookFile(currentFile, entry.getValue());
-                ClassFile[] classFiles = compiler.getClassFiles();
-                byte[] classBytes = classFiles[0].toByteArray();
-                File dirs = new File(cachePath);
-                if (!dirs.exists()) {
-                    dirs.mkdirs();
-                }
-                FileOutputStream fos = new FileOutputStream(new File(cachePath, fileName));
-                fos.write(classBytes, 0, classBytes.length);
-                fos.flush();
-                fos.close();
+                ClassFile[] classFiles = core.compileFile(currentFile, entry.getValue(), getErrorHandler(), getWarningHandler());
+                CompileCore.writeClassFile(cachePath, fileName, classFiles[0].toByteArray());
             }
             emitter.onNext(true);
             emitter.onComplete();
         });
     }
 
+    /**
+     * 编译字符串代码，通过背压流逐条返回结构化诊断信息
+     *
+     * @param classFileName the class file name
+     * @param javaCode      the java code
+     * @return the flowable
+     */
+    public Flowable<Diagnostic> compileStringJavaCodeToClassWithDiagnostics(String classFileName, String javaCode) {
+        Map<String, String> map = new HashMap<>(1);
+        map.put(classFileName, javaCode);
+        return compileStringJavaCodeToClassWithDiagnostics(map);
+    }
+
+    /**
+     * 编译字符串代码，通过背压流逐条返回结构化诊断信息，编译完成时流结束，编译失败时流以异常结束
+     * <p>
+     * 背压策略固定为BUFFER，这是有意的选择：诊断信息由Janino在编译线程内同步回调产生，
+     * 无法在不阻塞编译的前提下按requested()暂停，而丢弃策略会丢失突发的诊断，
+     * 因此未消费的诊断全部缓存，数量受源码中的错误和警告数量限制，保证不丢失
+     *
+     * @param map the map
+     * @return the flowable
+     */
+    public Flowable<Diagnostic> compileStringJavaCodeToClassWithDiagnostics(Map<String, String> map) {
+        return Flowable.create(emitter -> {
+            ErrorHandler errorHandler = getDiagnosticErrorHandler(emitter);
+            WarningHandler warningHandler = getDiagnosticWarningHandler(emitter);
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                //订阅已取消时不再编译剩余单元
+                if (emitter.isCancelled()) {
+                    return;
+                }
+                String originFileName = entry.getKey();
+                if (!originFileName.endsWith(".class")) {
+                    emitter.onError(new Throwable("传入map的key必须以.class结尾"));
+                    return;
+                }
+                ClassFile[] classFiles;
+                try {
+                    classFiles = core.compile(originFileName, new StringReader(entry.getValue()), errorHandler, warningHandler);
+                } catch (CompileException e) {
+                    onDiagnosticCompileException(emitter, e);
+                    return;
+                }
+                CompileCore.writeClassFile(cachePath, originFileName, classFiles[0].toByteArray());
+            }
+            emitter.onComplete();
+        }, BackpressureStrategy.BUFFER);
+    }
+
+    /**
+     * 编译Java文件，通过背压流逐条返回结构化诊断信息
+     *
+     * @param javaFile the java file
+     * @return the flowable
+     */
+    public Flowable<Diagnostic> compileFileJavaCodeToClassWithDiagnostics(File javaFile) {
+        Map<File, String> map = new HashMap<>(1);
+        map.put(javaFile, StandardCharsets.UTF_8.name());
+        return compileFileJavaCodeToClassWithDiagnostics(map);
+    }
+
+    /**
+     * 编译Java文件，通过背压流逐条返回结构化诊断信息
+     *
+     * @param javaFile the java file
+     * @param format   the format
+     * @return the flowable
+     */
+    public Flowable<Diagnostic> compileFileJavaCodeToClassWithDiagnostics(File javaFile, String format) {
+        Map<File, String> map = new HashMap<>(1);
+        map.put(javaFile, format);
+        return compileFileJavaCodeToClassWithDiagnostics(map);
+    }
+
+    /**
+     * 编译Java文件，通过背压流逐条返回结构化诊断信息，编译完成时流结束，编译失败时流以异常结束
+     * <p>
+     * 背压策略固定为BUFFER，这是有意的选择：诊断信息由Janino在编译线程内同步回调产生，
+     * 无法在不阻塞编译的前提下按requested()暂停，而丢弃策略会丢失突发的诊断，
+     * 因此未消费的诊断全部缓存，数量受源码中的错误和警告数量限制，保证不丢失
+     *
+     * @param map the map
+     * @return the flowable
+     */
+    public Flowable<Diagnostic> compileFileJavaCodeToClassWithDiagnostics(Map<File, String> map) {
+        return Flowable.create(emitter -> {
+            ErrorHandler errorHandler = getDiagnosticErrorHandler(emitter);
+            WarningHandler warningHandler = getDiagnosticWarningHandler(emitter);
+            for (Map.Entry<File, String> entry : map.entrySet()) {
+                //订阅已取消时不再编译剩余单元
+                if (emitter.isCancelled()) {
+                    return;
+                }
+                File currentFile = entry.getKey();
+                String fileName = currentFile.getName();
+                if (!fileName.endsWith(".class")) {
+                    emitter.onError(new Throwable("传入map的key的File文件名必须以.class结尾"));
+                    return;
+                }
+                ClassFile[] classFiles;
+                try {
+                    classFiles = core.compileFile(currentFile, entry.getValue(), errorHandler, warningHandler);
+                } catch (CompileException e) {
+                    onDiagnosticCompileException(emitter, e);
+                    return;
+                }
+                CompileCore.writeClassFile(cachePath, fileName, classFiles[0].toByteArray());
+            }
+            emitter.onComplete();
+        }, BackpressureStrategy.BUFFER);
+    }
+
+    /**
+     * Gets diagnostic error handler.
+     *
+     * @param emitter the emitter
+     * @return the diagnostic error handler
+     */
+    private ErrorHandler getDiagnosticErrorHandler(FlowableEmitter<Diagnostic> emitter) {
+        return (s, location) -> {
+            Diagnostic diagnostic = Diagnostic.error(s, location);
+            emitter.onNext(diagnostic);
+            printCompileInfo(diagnostic);
+        };
+    }
+
+    /**
+     * Gets diagnostic warning handler.
+     *
+     * @param emitter the emitter
+     * @return the diagnostic warning handler
+     */
+    private WarningHandler getDiagnosticWarningHandler(FlowableEmitter<Diagnostic> emitter) {
+        return (s, s1, location) -> {
+            Diagnostic diagnostic = Diagnostic.warning(s1, location);
+            emitter.onNext(diagnostic);
+            printCompileInfo(diagnostic);
+        };
+    }
+
+    /**
+     * 语法错误等直接抛出的异常未经过ErrorHandler，需补发一条诊断信息
+     *
+     * @param emitter the emitter
+     * @param e       the e
+     */
+    private void onDiagnosticCompileException(FlowableEmitter<Diagnostic> emitter, CompileException e) {
+        if (e.getLocation() != null) {
+            Diagnostic diagnostic = Diagnostic.error(e);
+            emitter.onNext(diagnostic);
+            printCompileInfo(diagnostic);
+        }
+        emitter.onError(e);
+    }
+
     /**
      * Compile class file to dex observable.
      *
@@ -408,15 +583,363 @@ public final class DynamicCompiler {
             if (dexFile.exists()) {
                 dexFile.delete();
             }
-            ClassLoader loader = getLocalClassLoader();
-            Class<?> javacClazz = loader.loadClass("com.android.dx.command.Main");
-            Method method = javacClazz.getMethod("main", String[].class);
-            method.invoke(null, (Object) param);
+            removeCachedDexClassLoader(dexName);
+            core.runDx(param);
+            updateRouteIndex(dexFile);
+            emitter.onNext(true);
+            emitter.onComplete();
+        });
+    }
+
+    /**
+     * 内存预算模式编译字符串代码到dex（key为classFileName，value为javaCode，key必须以.class结尾）
+     *
+     * @param map         the map
+     * @param dexPrefix   the dex prefix
+     * @param budgetBytes the budget bytes
+     * @return the observable
+     */
+    public Observable<BudgetCompileResult> compileStringJavaCodeToDexWithBudget(Map<String, String> map, String dexPrefix, long budgetBytes) {
+        return Observable.create(emitter -> {
+            for (String originFileName : map.keySet()) {
+                if (!originFileName.endsWith(".class")) {
+                    emitter.onError(new Throwable("传入map的key必须以.class结尾"));
+                    return;
+                }
+            }
+            BudgetedCompiler compiler = new BudgetedCompiler(core, new File(stagingPath), new File(compileDexPath), dexPrefix, budgetBytes, getBudgetChunkListener());
+            BudgetCompileResult result = compiler.compileSources(map, getErrorHandler(), getWarningHandler());
+            onBudgetCompiled(result);
+            emitter.onNext(result);
+            emitter.onComplete();
+        });
+    }
+
+    /**
+     * 内存预算模式编译Java文件到dex（key为File对象，文件名必须以class结尾,value为编码格式）
+     *
+     * @param map         the map
+     * @param dexPrefix   the dex prefix
+     * @param budgetBytes the budget bytes
+     * @return the observable
+     */
+    public Observable<BudgetCompileResult> compileFileJavaCodeToDexWithBudget(Map<File, String> map, String dexPrefix, long budgetBytes) {
+        return Observable.create(emitter -> {
+            for (File currentFile : map.keySet()) {
+                if (!currentFile.getName().endsWith(".class")) {
+                    emitter.onError(new Throwable("传入map的key的File文件名必须以.class结尾"));
+                    return;
+                }
+            }
+            BudgetedCompiler compiler = new BudgetedCompiler(core, new File(stagingPath), new File(compileDexPath), dexPrefix, budgetBytes, getBudgetChunkListener());
+            BudgetCompileResult result = compiler.compileFiles(map, getErrorHandler(), getWarningHandler());
+            onBudgetCompiled(result);
+            emitter.onNext(result);
+            emitter.onComplete();
+        });
+    }
+
+    /**
+     * 分块dex每次写出或删除后立即刷新ClassLoader缓存和路由索引
+     *
+     * @return the budget chunk listener
+     */
+    private BudgetedCompiler.ChunkListener getBudgetChunkListener() {
+        return new BudgetedCompiler.ChunkListener() {
+            @Override
+            public void onChunkWritten(File dexFile) throws IOException {
+                removeCachedDexClassLoader(dexFile.getName());
+                updateRouteIndex(dexFile);
+            }
+
+            @Override
+            public void onChunkRemoved(File dexFile) throws IOException {
+                removeCachedDexClassLoader(dexFile.getName());
+                routeIndex.remove(dexFile.getName());
+            }
+        };
+    }
+
+    /**
+     * On budget compiled.
+     *
+     * @param result the result
+     */
+    private void onBudgetCompiled(BudgetCompileResult result) {
+        if (hasCompileLog) {
+            Log.i(TAG, "内存预算编译完成：" + result);
+        }
+    }
+
+    /**
+     * Compile snippet observable.
+     *
+     * @param <T>     the type parameter
+     * @param snippet the snippet
+     * @return 实现了片段接口的实例
+     */
+    public <T> Observable<T> compileSnippet(Snippet<T> snippet) {
+        return compileSnippets(Collections.<Snippet<?>>singletonList(snippet)).map(list -> snippet.getInterfaceType().cast(list.get(0)));
+    }
+
+    /**
+     * 批量编译代码片段，返回的接口实例顺序与snippetList一致
+     * <p>
+     * 每个片段按自身hash查找：先查内存缓存，再按路由索引查找之前任意批次编译出的dex，
+     * 都没有的片段合并编译到一个新的dex；片段dex超过上限时删除最久未使用的
+     *
+     * @param snippetList the snippet list
+     * @return the observable
+     */
+    public Observable<List<Object>> compileSnippets(List<Snippet<?>> snippetList) {
+        return Observable.create(emitter -> {
+            Map<String, Object> instances = new HashMap<>(snippetList.size());
+            Map<String, Snippet<?>> pending = new TreeMap<>();
+            synchronized (snippetCache) {
+                for (Snippet<?> snippet : snippetList) {
+                    Object instance = snippetCache.get(snippet.getHash());
+                    if (instance != null) {
+                        instances.put(snippet.getHash(), instance);
+                    } else {
+                        pending.put(snippet.getHash(), snippet);
+                    }
+                }
+            }
+            Iterator<Snippet<?>> iterator = pending.values().iterator();
+            while (iterator.hasNext()) {
+                Snippet<?> snippet = iterator.next();
+                Object instance = loadCompiledSnippet(snippet);
+                if (instance != null) {
+                    instances.put(snippet.getHash(), instance);
+                    iterator.remove();
+                }
+            }
+            if (!pending.isEmpty()) {
+                List<Snippet<?>> batch = new ArrayList<>(pending.values());
+                File dexFile = new File(compileDexPath, SnippetCompiler.getDexName(batch));
+                if (new SnippetCompiler(core).compileToDexIfInvalid(batch, new File(stagingPath), dexFile, getErrorHandler(), getWarningHandler())) {
+                    removeCachedDexClassLoader(dexFile.getName());
+                    updateRouteIndex(dexFile);
+                    trimSnippetDexes(dexFile);
+                } else {
+                    dexFile.setLastModified(System.currentTimeMillis());
+                }
+                DexClassLoader classLoader = getCachedDexClassLoader(dexFile);
+                for (Snippet<?> snippet : batch) {
+                    instances.put(snippet.getHash(), SnippetCompiler.newInstance(classLoader.loadClass(SnippetCompiler.getClassName(snippet)), snippet));
+                }
+            }
+            List<Object> result = new ArrayList<>(snippetList.size());
+            synchronized (snippetCache) {
+                for (Snippet<?> snippet : snippetList) {
+                    Object instance = instances.get(snippet.getHash());
+                    snippetCache.put(snippet.getHash(), instance);
+                    result.add(instance);
+                }
+            }
+            emitter.onNext(result);
+            emitter.onComplete();
+        });
+    }
+
+    /**
+     * 清除内存中的片段实例，并删除编译路径下全部片段dex
+     *
+     * @return the observable
+     */
+    public Observable<Boolean> clearSnippetCache() {
+        return Observable.create(emitter -> {
+            synchronized (snippetCache) {
+                snippetCache.clear();
+            }
+            for (File file : listSnippetDexes()) {
+                deleteSnippetDex(file);
+            }
+            emitter.onNext(true);
+            emitter.onComplete();
+        });
+    }
+
+    /**
+     * 按路由索引加载之前编译过的片段，并刷新dex的修改时间作为最近使用时间
+     *
+     * @param <T>     the type parameter
+     * @param snippet the snippet
+     * @return the t，未编译过或dex已失效时为null
+     * @throws Exception the exception
+     */
+    private <T> T loadCompiledSnippet(Snippet<T> snippet) throws Exception {
+        String className = SnippetCompiler.getClassName(snippet);
+        String dexName = routeIndex.getDexName(className);
+        if (dexName == null) {
+            return null;
+        }
+        File dexFile = new File(compileDexPath, dexName);
+        if (!SnippetCompiler.isValidDex(dexFile, Collections.singletonList(className))) {
+            deleteSnippetDex(dexFile);
+            return null;
+        }
+        dexFile.setLastModified(System.currentTimeMillis());
+        return SnippetCompiler.newInstance(getCachedDexClassLoader(dexFile).loadClass(className), snippet);
+    }
+
+    /**
+     * 片段dex超过上限时按修改时间删除最久未使用的，刚编译出的dex不会被删除；
+     * 已加载的片段实例不受影响
+     *
+     * @param keepFile the keep file
+     * @throws IOException the io exception
+     */
+    private void trimSnippetDexes(File keepFile) throws IOException {
+        List<File> files = listSnippetDexes();
+        files.remove(keepFile);
+        int count = files.size() + 1 - MAX_SNIPPET_DEX_COUNT;
+        if (count <= 0) {
+            return;
+        }
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                return Long.compare(o1.lastModified(), o2.lastModified());
+            }
+        });
+        for (int i = 0; i < count; i++) {
+            deleteSnippetDex(files.get(i));
+        }
+    }
+
+    /**
+     * List snippet dexes list.
+     *
+     * @return the list
+     */
+    private List<File> listSnippetDexes() {
+        List<File> list = new ArrayList<>();
+        File[] files = new File(compileDexPath).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && file.getName().startsWith(SnippetCompiler.DEX_PREFIX) && file.getName().endsWith(".dex")) {
+                    list.add(file);
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Delete snippet dex.
+     *
+     * @param dexFile the dex file
+     * @throws IOException the io exception
+     */
+    private void deleteSnippetDex(File dexFile) throws IOException {
+        removeCachedDexClassLoader(dexFile.getName());
+        routeIndex.remove(dexFile.getName());
+        dexFile.delete();
+    }
+
+    /**
+     * Pack dex to bundle observable.
+     *
+     * @param bundleName  the bundle name
+     * @param dexNameList the dex name list
+     * @return the observable
+     */
+    public Observable<Boolean> packDexToBundle(String bundleName, List<String> dexNameList) {
+        return Observable.create(emitter -> {
+            if (!bundleName.endsWith(".bundle")) {
+                emitter.onError(new Throwable("传入的bundleName必须以.bundle结尾"));
+                return;
+            }
+            List<File> dexFileList = new ArrayList<>(dexNameList.size());
+            for (String name : dexNameList) {
+                if (!name.endsWith(".dex")) {
+                    emitter.onError(new Throwable("传入的dexName必须以.dex结尾"));
+                    return;
+                }
+                File dexFile = new File(compileDexPath, name);
+                if (!dexFile.exists()) {
+                    emitter.onError(new Throwable("该dex文件不存在：" + dexFile.getAbsolutePath()));
+                    return;
+                }
+                dexFileList.add(dexFile);
+            }
+            DexBundle.write(new File(compileDexPath, bundleName), dexFileList);
             emitter.onNext(true);
             emitter.onComplete();
         });
     }
 
+    /**
+     * Validate bundle observable.
+     *
+     * @param bundleFile the bundle file
+     * @return the observable
+     */
+    public Observable<Boolean> validateBundle(File bundleFile) {
+        return Observable.create(emitter -> {
+            try (DexBundle bundle = DexBundle.open(bundleFile)) {
+                emitter.onNext(bundle.validate());
+            }
+            emitter.onComplete();
+        });
+    }
+
+    /**
+     * 只校验产物包内单个类自身的数据
+     *
+     * @param bundleFile      the bundle file
+     * @param absoluteClsName the absolute cls name
+     * @return the observable
+     */
+    public Observable<Boolean> validateBundle(File bundleFile, String absoluteClsName) {
+        return Observable.create(emitter -> {
+            try (DexBundle bundle = DexBundle.open(bundleFile)) {
+                emitter.onNext(bundle.validate(absoluteClsName));
+            }
+            emitter.onComplete();
+        });
+    }
+
+    /**
+     * Gets bundle class names.
+     *
+     * @param bundleFile the bundle file
+     * @return the observable
+     */
+    public Observable<Set<String>> getBundleClassNames(File bundleFile) {
+        return Observable.create(emitter -> {
+            try (DexBundle bundle = DexBundle.open(bundleFile)) {
+                emitter.onNext(new HashSet<>(bundle.getClassNames()));
+            }
+            emitter.onComplete();
+        });
+    }
+
+    /**
+     * Extract dex from bundle observable.
+     *
+     * @param bundleFile      the bundle file
+     * @param absoluteClsName the absolute cls name
+     * @return the observable
+     */
+    public Observable<File> extractDexFromBundle(File bundleFile, String absoluteClsName) {
+        return Observable.create(emitter -> {
+            File dexFile;
+            try (DexBundle bundle = DexBundle.open(bundleFile)) {
+                if (!bundle.contains(absoluteClsName)) {
+                    emitter.onError(new Throwable("该bundle中不存在类：" + absoluteClsName));
+                    return;
+                }
+                removeCachedDexClassLoader(bundle.getDexName(absoluteClsName));
+                dexFile = bundle.extractDex(absoluteClsName, new File(compileDexPath));
+            }
+            updateRouteIndex(dexFile);
+            emitter.onNext(dexFile);
+            emitter.onComplete();
+        });
+    }
+
     /**
      * Merge dex to app by name observable.
      *
@@ -609,6 +1132,70 @@ public final class DynamicCompiler {
         });
     }
 
+    /**
+     * Load dex to class by index observable.
+     *
+     * @param absoluteClsName the absolute cls name
+     * @return the observable
+     */
+    public Observable<Map<String, Class<?>>> loadDexToClassByIndex(String absoluteClsName) {
+        return loadDexToClassByIndex(Arrays.asList(absoluteClsName));
+    }
+
+    /**
+     * Load dex to class by index observable.
+     *
+     * @param absoluteClsNameList the absolute cls name list
+     * @return the observable
+     */
+    public Observable<Map<String, Class<?>>> loadDexToClassByIndex(List<String> absoluteClsNameList) {
+        return Observable.create(emitter -> {
+            Map<String, Class<?>> classMap = new HashMap<>(absoluteClsNameList.size());
+            for (String name : absoluteClsNameList) {
+                String dexName = routeIndex.getDexName(name);
+                File file = dexName == null ? null : new File(compileDexPath, dexName);
+                //优先的dex已被删除时移除其记录，改用仍定义该类的其他dex
+                while (file != null && !file.exists()) {
+                    routeIndex.remove(dexName);
+                    removeCachedDexClassLoader(dexName);
+                    dexName = routeIndex.getDexName(name);
+                    file = dexName == null ? null : new File(compileDexPath, dexName);
+                }
+                if (file == null) {
+                    emitter.onError(new Throwable("dex路由索引中不存在该类：" + name));
+                    return;
+                }
+                Class<?> loadClass = getCachedDexClassLoader(file).loadClass(name);
+                classMap.put(name, loadClass);
+            }
+            emitter.onNext(classMap);
+            emitter.onComplete();
+        });
+    }
+
+    /**
+     * 将已放入编译路径的dex（如命令行预编译后拷入的dex）登记到路由索引，已登记过的会被刷新
+     *
+     * @param dexFile the dex file
+     * @return the observable
+     */
+    public Observable<Boolean> registerDex(File dexFile) {
+        return Observable.create(emitter -> {
+            if (!dexFile.isFile() || !dexFile.getName().endsWith(".dex")) {
+                emitter.onError(new Throwable("传入的File必须是以.dex结尾的文件"));
+                return;
+            }
+            if (!dexFile.getAbsoluteFile().getParentFile().getCanonicalFile().equals(new File(compileDexPath).getCanonicalFile())) {
+                emitter.onError(new Throwable("dex文件必须位于dex编译路径下：" + dexFile.getAbsolutePath()));
+                return;
+            }
+            removeCachedDexClassLoader(dexFile.getName());
+            updateRouteIndex(dexFile);
+            emitter.onNext(true);
+            emitter.onComplete();
+        });
+    }
+
     /**
      * Load dex to class with merge by name observable.
      *
@@ -659,9 +1246,56 @@ public final class DynamicCompiler {
      * Clear compile folder.
      */
     public void clearCompileFolder() {
+        synchronized (loaderCache) {
+            loaderCache.clear();
+        }
+        synchronized (snippetCache) {
+            snippetCache.clear();
+        }
+        routeIndex.clear();
         deleteFilesInDirectory(compileDexPath);
     }
 
+    /**
+     * 将编译路径下新生成的dex登记到路由索引
+     *
+     * @param dexFile the dex file
+     * @throws IOException the io exception
+     */
+    private void updateRouteIndex(File dexFile) throws IOException {
+        if (dexFile.exists()) {
+            routeIndex.update(dexFile.getName(), DexClassNameReader.read(dexFile));
+        }
+    }
+
+    /**
+     * Gets cached dex class loader.
+     *
+     * @param dexFile the dex file
+     * @return the cached dex class loader
+     */
+    private DexClassLoader getCachedDexClassLoader(File dexFile) {
+        synchronized (loaderCache) {
+            DexClassLoader classLoader = loaderCache.get(dexFile.getName());
+            if (classLoader == null) {
+                classLoader = new DexClassLoader(dexFile.getAbsolutePath(), opDexCachePath, null, getLocalClassLoader());
+                loaderCache.put(dexFile.getName(), classLoader);
+            }
+            return classLoader;
+        }
+    }
+
+    /**
+     * Remove cached dex class loader.
+     *
+     * @param dexName the dex name
+     */
+    private void removeCachedDexClassLoader(String dexName) {
+        synchronized (loaderCache) {
+            loaderCache.remove(dexName);
+        }
+    }
+
     /**
      * Delete files in directory.
      *
@@ -703,22 +1337,18 @@ public final class DynamicCompiler {
     /**
      * Print compile info.
      *
-     * @param statue the statue
-     * @param level  the level
-     * @param info   the info
+     * @param diagnostic the diagnostic
      */
-    private void printCompileInfo(Statue statue, int level, String info) {
-        statueData.postValue(statue);
+    private void printCompileInfo(Diagnostic diagnostic) {
+        boolean isError = diagnostic.getKind() == Diagnostic.Kind.ERROR;
+        if (statueData.hasObservers()) {
+            statueData.postValue(isError ? Statue.COMPILE_JAVA_ERROR : Statue.COMPILE_JAVA_WARNING);
+        }
         if (hasCompileLog) {
-            switch (level) {
-                case 1:
-                    Log.i(TAG, info);
-                    break;
-                case 2:
-                    Log.e(TAG, info);
-                    break;
-                default:
-                    break;
+            if (isError) {
+                Log.e(TAG, diagnostic.format());
+            } else {
+                Log.i(TAG, diagnostic.format());
             }
         }
     }
@@ -0,0 +1,258 @@
+package cn.com.shadowless.compilelib;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * 代码片段，表达式或方法体，编译后生成调用方指定接口的实现类
+ * <p>
+ * 接口必须是public（嵌套接口的外部类也须为public），且除Object的方法外只有一个抽象方法，
+ * 片段即该方法的实现，调用时直接通过接口调用，参数类型由编译器检查，无需反射；
+ * 片段中引用的类需使用全限定类名
+ *
+ * @param <T> 接口类型
+ * @author sHadowLess
+ */
+public final class Snippet<T> {
+
+    /**
+     * The Kind.
+     */
+    private final Kind kind;
+
+    /**
+     * The Source.
+     */
+    private final String source;
+
+    /**
+     * The Interface type.
+     */
+    private final Class<T> interfaceType;
+
+    /**
+     * 接口中唯一的抽象方法
+     */
+    private final Method method;
+
+    /**
+     * The Parameter names.
+     */
+    private final String[] parameterNames;
+
+    /**
+     * The Hash.
+     */
+    private final String hash;
+
+    /**
+     * Instantiates a new Snippet.
+     *
+     * @param kind           the kind
+     * @param source         the source
+     * @param interfaceType  the interface type
+     * @param parameterNames the parameter names
+     */
+    private Snippet(Kind kind, String source, Class<T> interfaceType, String[] parameterNames) {
+        this.method = findMethod(interfaceType);
+        if (parameterNames.length != method.getParameterTypes().length) {
+            throw new IllegalArgumentException("参数名数量必须与接口方法的参数数量一致：" + method);
+        }
+        this.kind = kind;
+        this.source = source;
+        this.interfaceType = interfaceType;
+        this.parameterNames = parameterNames.clone();
+        this.hash = computeHash();
+    }
+
+    /**
+     * 表达式片段，如 a + b，接口方法返回void时表达式作为语句执行
+     *
+     * @param <T>            the type parameter
+     * @param expression     the expression
+     * @param interfaceType  the interface type
+     * @param parameterNames 接口方法的参数名，按参数顺序
+     * @return the snippet
+     */
+    public static <T> Snippet<T> expression(String expression, Class<T> interfaceType, String... parameterNames) {
+        return new Snippet<>(Kind.EXPRESSION, expression, interfaceType, parameterNames);
+    }
+
+    /**
+     * 脚本片段，即方法体，返回类型非void时需自行return
+     *
+     * @param <T>            the type parameter
+     * @param script         the script
+     * @param interfaceType  the interface type
+     * @param parameterNames 接口方法的参数名，按参数顺序
+     * @return the snippet
+     */
+    public static <T> Snippet<T> script(String script, Class<T> interfaceType, String... parameterNames) {
+        return new Snippet<>(Kind.SCRIPT, script, interfaceType, parameterNames);
+    }
+
+    /**
+     * 由接口方法、参数名和源码计算的SHA-1，用于缓存
+     *
+     * @return the hash
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * Gets interface type.
+     *
+     * @return the interface type
+     */
+    public Class<T> getInterfaceType() {
+        return interfaceType;
+    }
+
+    /**
+     * 生成该片段对应的实现类源码
+     *
+     * @param simpleName the simple name
+     * @return the string
+     */
+    String toClassSource(String simpleName) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("public final class ").append(simpleName).append(" implements ").append(getTypeName(interfaceType)).append(" {\n");
+        Class<?> returnType = method.getReturnType();
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        builder.append("    public ").append(getTypeName(returnType)).append(' ').append(method.getName()).append('(');
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(getTypeName(parameterTypes[i])).append(' ').append(parameterNames[i]);
+        }
+        builder.append(')');
+        Class<?>[] exceptionTypes = method.getExceptionTypes();
+        for (int i = 0; i < exceptionTypes.length; i++) {
+            builder.append(i == 0 ? " throws " : ", ").append(getTypeName(exceptionTypes[i]));
+        }
+        builder.append(" {\n");
+        if (kind == Kind.SCRIPT) {
+            builder.append(source).append('\n');
+        } else if (returnType == void.class) {
+            builder.append("        ").append(source).append(";\n");
+        } else {
+            builder.append("        return (").append(source).append(");\n");
+        }
+        builder.append("    }\n");
+        builder.append("}\n");
+        return builder.toString();
+    }
+
+    /**
+     * 查找接口中唯一的抽象方法
+     *
+     * @param interfaceType the interface type
+     * @return the method
+     */
+    private static Method findMethod(Class<?> interfaceType) {
+        if (!interfaceType.isInterface()) {
+            throw new IllegalArgumentException("片段类型必须是接口：" + interfaceType.getName());
+        }
+        for (Class<?> type = interfaceType; type != null; type = type.getEnclosingClass()) {
+            if (!Modifier.isPublic(type.getModifiers())) {
+                throw new IllegalArgumentException("接口及其外部类必须是public：" + interfaceType.getName());
+            }
+        }
+        Method found = null;
+        for (Method method : interfaceType.getMethods()) {
+            if (!Modifier.isAbstract(method.getModifiers()) || isObjectMethod(method)) {
+                continue;
+            }
+            if (found != null && !(found.getName().equals(method.getName()) && Arrays.equals(found.getParameterTypes(), method.getParameterTypes()))) {
+                throw new IllegalArgumentException("接口只能有一个抽象方法：" + interfaceType.getName());
+            }
+            found = method;
+        }
+        if (found == null) {
+            throw new IllegalArgumentException("接口没有抽象方法：" + interfaceType.getName());
+        }
+        return found;
+    }
+
+    /**
+     * 接口中重新声明的Object方法（如equals）不算作片段方法
+     *
+     * @param method the method
+     * @return the boolean
+     */
+    private static boolean isObjectMethod(Method method) {
+        try {
+            Object.class.getMethod(method.getName(), method.getParameterTypes());
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Compute hash string.
+     *
+     * @return the string
+     */
+    private String computeHash() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(kind).append('\n').append(interfaceType.getName()).append('\n').append(method).append('\n');
+        for (String parameterName : parameterNames) {
+            builder.append(parameterName).append('\n');
+        }
+        builder.append(source);
+        return sha1(builder.toString());
+    }
+
+    /**
+     * Sha 1 string.
+     *
+     * @param text the text
+     * @return the string
+     */
+    static String sha1(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Gets type name.
+     *
+     * @param type the type
+     * @return the type name
+     */
+    private static String getTypeName(Class<?> type) {
+        String name = type.getCanonicalName();
+        return name == null ? type.getName() : name;
+    }
+
+    /**
+     * The enum Kind.
+     */
+    public enum Kind {
+
+        /**
+         * Expression kind.
+         */
+        EXPRESSION,
+        /**
+         * Script kind.
+         */
+        SCRIPT
+
+    }
+}
@@ -0,0 +1,204 @@
+package cn.com.shadowless.compilelib;
+
+import org.codehaus.commons.compiler.ErrorHandler;
+import org.codehaus.commons.compiler.WarningHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 代码片段批量编译，每个片段生成一个实现调用方接口的类，一批片段的类输出到同一个dex
+ * <p>
+ * 与Janino的ExpressionEvaluator.createFastEvaluator一致，生成接口实现类而非反射调用，
+ * 但Janino在cook时会直接defineClass，Android上不可用，故改为生成源码后走SimpleCompiler和dx
+ * <p>
+ * 片段类名只由片段自身的hash决定，与所在批次无关，之前任意批次编译过的片段都可通过路由索引找到所在dex；
+ * 同一dex的编译串行执行，dex先写到同目录的临时文件再重命名，中途失败不会留下不完整的dex
+ *
+ * @author sHadowLess
+ */
+public final class SnippetCompiler {
+
+    /**
+     * The constant PACKAGE_NAME.
+     */
+    private static final String PACKAGE_NAME = "cn.com.shadowless.compilelib.snippet";
+
+    /**
+     * 片段dex名前缀
+     */
+    public static final String DEX_PREFIX = "Snippets_";
+
+    /**
+     * 按dex名分段的编译锁，数量固定
+     */
+    private static final Object[] LOCKS = new Object[32];
+
+    static {
+        for (int i = 0; i < LOCKS.length; i++) {
+            LOCKS[i] = new Object();
+        }
+    }
+
+    /**
+     * The Core.
+     */
+    private final CompileCore core;
+
+    /**
+     * Instantiates a new Snippet compiler.
+     *
+     * @param core the core
+     */
+    public SnippetCompiler(CompileCore core) {
+        this.core = core;
+    }
+
+    /**
+     * 片段对应的类名，只由片段hash决定
+     *
+     * @param snippet the snippet
+     * @return the class name
+     */
+    public static String getClassName(Snippet<?> snippet) {
+        return PACKAGE_NAME + ".Snippet_" + snippet.getHash();
+    }
+
+    /**
+     * 由片段hash计算一批片段的dex名，同一批片段总是得到同一个dex名
+     *
+     * @param snippets the snippets
+     * @return the dex name
+     */
+    public static String getDexName(List<Snippet<?>> snippets) {
+        StringBuilder builder = new StringBuilder();
+        for (Snippet<?> snippet : snippets) {
+            builder.append(snippet.getHash()).append('\n');
+        }
+        return DEX_PREFIX + Snippet.sha1(builder.toString()) + ".dex";
+    }
+
+    /**
+     * 生成一批片段的源码，每个片段一个顶层类
+     *
+     * @param snippets the snippets
+     * @return the string
+     */
+    public static String generateSource(List<Snippet<?>> snippets) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("package ").append(PACKAGE_NAME).append(";\n\n");
+        for (Snippet<?> snippet : snippets) {
+            String className = getClassName(snippet);
+            builder.append(snippet.toClassSource(className.substring(className.lastIndexOf('.') + 1)));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 已有的dex完整且包含全部片段类时直接复用，否则重新编译
+     *
+     * @param snippets       the snippets
+     * @param stagingRoot    class暂存根目录，不能位于交给dx整体读取的文件夹下
+     * @param dexFile        the dex file
+     * @param errorHandler   the error handler
+     * @param warningHandler the warning handler
+     * @return 是否重新编译了dex
+     * @throws Exception the exception
+     */
+    public boolean compileToDexIfInvalid(List<Snippet<?>> snippets, File stagingRoot, File dexFile, ErrorHandler errorHandler, WarningHandler warningHandler) throws Exception {
+        synchronized (getLock(dexFile.getName())) {
+            if (isValidDex(dexFile, getClassNames(snippets))) {
+                return false;
+            }
+            compileToDex(snippets, stagingRoot, dexFile, errorHandler, warningHandler);
+            return true;
+        }
+    }
+
+    /**
+     * 编译一批片段到dex
+     *
+     * @param snippets       the snippets
+     * @param stagingRoot    class暂存根目录，不能位于交给dx整体读取的文件夹下
+     * @param dexFile        the dex file
+     * @param errorHandler   the error handler
+     * @param warningHandler the warning handler
+     * @throws Exception the exception
+     */
+    public void compileToDex(List<Snippet<?>> snippets, File stagingRoot, File dexFile, ErrorHandler errorHandler, WarningHandler warningHandler) throws Exception {
+        synchronized (getLock(dexFile.getName())) {
+            String baseName = dexFile.getName().substring(0, dexFile.getName().length() - ".dex".length());
+            File stagingDir = new File(stagingRoot, ".snippet_" + baseName);
+            //dx要求输出后缀为.dex，以.开头避免重建路由索引时被扫描到
+            File tempFile = new File(dexFile.getAbsoluteFile().getParentFile(), "." + baseName + ".tmp.dex");
+            CompileCore.deleteDirectory(stagingDir);
+            try {
+                CompileCore.writeClassFiles(stagingDir.getAbsolutePath(), core.compile(baseName + ".java", new StringReader(generateSource(snippets)), errorHandler, warningHandler));
+                tempFile.delete();
+                core.runDx("--dex", "--no-strict", "--output=" + tempFile.getAbsolutePath(), stagingDir.getAbsolutePath());
+                CompileCore.replaceFile(tempFile, dexFile);
+            } finally {
+                CompileCore.deleteDirectory(stagingDir);
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * dex存在、文件完整且定义了全部类
+     *
+     * @param dexFile    the dex file
+     * @param classNames the class names
+     * @return the boolean
+     */
+    public static boolean isValidDex(File dexFile, List<String> classNames) {
+        if (!dexFile.isFile()) {
+            return false;
+        }
+        try {
+            return DexClassNameReader.read(dexFile).containsAll(classNames);
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 创建已加载的片段类的实例
+     *
+     * @param <T>     the type parameter
+     * @param clazz   the clazz
+     * @param snippet the snippet
+     * @return the t
+     * @throws ReflectiveOperationException the reflective operation exception
+     */
+    public static <T> T newInstance(Class<?> clazz, Snippet<T> snippet) throws ReflectiveOperationException {
+        return snippet.getInterfaceType().cast(clazz.getConstructor().newInstance());
+    }
+
+    /**
+     * Gets class names.
+     *
+     * @param snippets the snippets
+     * @return the class names
+     */
+    private static List<String> getClassNames(List<Snippet<?>> snippets) {
+        List<String> classNames = new ArrayList<>(snippets.size());
+        for (Snippet<?> snippet : snippets) {
+            classNames.add(getClassName(snippet));
+        }
+        return classNames;
+    }
+
+    /**
+     * Gets lock.
+     *
+     * @param dexName the dex name
+     * @return the lock
+     */
+    private static Object getLock(String dexName) {
+        return LOCKS[(dexName.hashCode() & 0x7FFFFFFF) % LOCKS.length];
+    }
+}
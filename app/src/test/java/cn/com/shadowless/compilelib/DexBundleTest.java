@@ -0,0 +1,219 @@
+package cn.com.shadowless.compilelib;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * DexBundle的读写和损坏检测
+ *
+ * @author sHadowLess
+ */
+public class DexBundleTest {
+
+    /**
+     * 类A中方法返回的常量，用于在dex中定位A的code_item
+     */
+    private static final int MARKER = 0x1A2B3C4D;
+
+    /**
+     * The Folder.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The Dex a.
+     */
+    private File dexA;
+
+    /**
+     * The Dex b.
+     */
+    private File dexB;
+
+    /**
+     * The Bundle file.
+     */
+    private File bundleFile;
+
+    /**
+     * Sets up.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        File dir = folder.newFolder("dex");
+        dexA = DexTestSupport.compileDex(dir, "first.dex",
+                "package p; public class A { public static int v() { return " + MARKER + "; } public static class In { } }",
+                "package p; public class C { public static int c() { try { return Integer.parseInt(\"1\"); } catch (RuntimeException e) { return 0; } } }");
+        dexB = DexTestSupport.compileDex(dir, "second.dex", "package q; public class B { }");
+        bundleFile = new File(folder.getRoot(), "out.bundle");
+        DexBundle.write(bundleFile, Arrays.asList(dexA, dexB));
+    }
+
+    /**
+     * 写入后读取，类索引、校验和提取结果与原dex一致
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void roundTrip() throws Exception {
+        try (DexBundle bundle = DexBundle.open(bundleFile)) {
+            assertEquals(new HashSet<>(Arrays.asList("p.A", "p.A$In", "p.C", "q.B")), bundle.getClassNames());
+            assertEquals("first.dex", bundle.getDexName("p.A$In"));
+            assertEquals("second.dex", bundle.getDexName("q.B"));
+            assertTrue(bundle.validate());
+            for (String className : bundle.getClassNames()) {
+                assertTrue(className, bundle.validate(className));
+            }
+            File extractDir = folder.newFolder("extract");
+            File extracted = bundle.extractDex("p.C", extractDir);
+            assertEquals(new File(extractDir, "first.dex"), extracted);
+            assertArrayEquals(Files.readAllBytes(dexA.toPath()), Files.readAllBytes(extracted.toPath()));
+            assertEquals(Collections.singletonList("first.dex"), Arrays.asList(extractDir.list()));
+        }
+    }
+
+    /**
+     * 截断的产物包无法打开
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void truncatedBundleIsRejected() throws Exception {
+        byte[] bytes = Files.readAllBytes(bundleFile.toPath());
+        for (int length : new int[]{0, 16, 40, bytes.length - 1}) {
+            assertOpenFails(Arrays.copyOf(bytes, length));
+        }
+    }
+
+    /**
+     * 头部或索引被修改后CRC32校验失败
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void badIndexCrcIsRejected() throws Exception {
+        byte[] bytes = Files.readAllBytes(bundleFile.toPath());
+        for (int position : new int[]{8, 12, 20, 24, 36, 60}) {
+            byte[] corrupted = bytes.clone();
+            corrupted[position] ^= 0x5A;
+            assertOpenFails(corrupted);
+        }
+    }
+
+    /**
+     * 数量为负时即使CRC32正确也无法打开
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void negativeCountIsRejected() throws Exception {
+        byte[] bytes = Files.readAllBytes(bundleFile.toPath());
+        for (int position : new int[]{8, 12}) {
+            byte[] corrupted = bytes.clone();
+            ByteBuffer.wrap(corrupted).putInt(position, -1);
+            DexTestSupport.rewriteIndexCrc(corrupted);
+            assertOpenFails(corrupted);
+        }
+        byte[] corrupted = bytes.clone();
+        ByteBuffer.wrap(corrupted).putInt(12, Integer.MAX_VALUE);
+        DexTestSupport.rewriteIndexCrc(corrupted);
+        assertOpenFails(corrupted);
+    }
+
+    /**
+     * dex名中含..或路径分隔符时写入和打开都失败
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void dexNameWithPathIsRejected() throws Exception {
+        File dotted = new File(dexA.getParentFile(), "..first.dex");
+        Files.copy(dexA.toPath(), dotted.toPath());
+        try {
+            DexBundle.write(new File(folder.getRoot(), "dotted.bundle"), Collections.singletonList(dotted));
+            fail();
+        } catch (IOException e) {
+            //预期
+        }
+        byte[] bytes = Files.readAllBytes(bundleFile.toPath());
+        for (String name : new String[]{"../p.dex", "a/b.dex", "a\\b.dex", "abcd.txt"}) {
+            byte[] corrupted = bytes.clone();
+            //first.dex与替换后的名字都是9字节以内，按原长度覆盖
+            byte[] original = "first.dex".getBytes(StandardCharsets.UTF_8);
+            byte[] replaced = Arrays.copyOf(name.getBytes(StandardCharsets.UTF_8), original.length);
+            int position = DexTestSupport.indexOf(corrupted, original);
+            ByteBuffer.wrap(corrupted).putInt(position - 4, name.length());
+            System.arraycopy(replaced, 0, corrupted, position, name.length());
+            //剩余字节不能留在索引中，整体前移
+            byte[] shifted = new byte[corrupted.length - (original.length - name.length())];
+            System.arraycopy(corrupted, 0, shifted, 0, position + name.length());
+            System.arraycopy(corrupted, position + original.length, shifted, position + name.length(), corrupted.length - position - original.length);
+            ByteBuffer.wrap(shifted).putLong(16, ByteBuffer.wrap(corrupted).getLong(16) - (original.length - name.length()));
+            DexTestSupport.rewriteIndexCrc(shifted);
+            assertOpenFails(shifted);
+        }
+    }
+
+    /**
+     * dex数据损坏时整体校验和提取失败，单个类的校验只受该类自身数据影响
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void corruptedClassIsDetected() throws Exception {
+        byte[] bytes = Files.readAllBytes(bundleFile.toPath());
+        int position = DexTestSupport.indexOf(bytes, DexTestSupport.littleEndian(MARKER));
+        assertTrue(position > 0);
+        bytes[position] ^= 0x01;
+        Files.write(bundleFile.toPath(), bytes);
+        try (DexBundle bundle = DexBundle.open(bundleFile)) {
+            assertFalse(bundle.validate());
+            assertFalse(bundle.validate("p.A"));
+            assertTrue(bundle.validate("p.C"));
+            assertTrue(bundle.validate("p.A$In"));
+            assertTrue(bundle.validate("q.B"));
+            try {
+                bundle.extractDex("p.C", folder.newFolder("extract"));
+                fail();
+            } catch (IOException e) {
+                //预期
+            }
+        }
+    }
+
+    /**
+     * Assert open fails.
+     *
+     * @param bytes the bytes
+     * @throws IOException the io exception
+     */
+    private void assertOpenFails(byte[] bytes) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), bytes);
+        try (DexBundle bundle = DexBundle.open(file)) {
+            fail("损坏的产物包不应打开成功：" + bundle.getClassNames());
+        } catch (IOException e) {
+            //预期
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package cn.com.shadowless.compilelib;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * DexClassNameReader的类名和类CRC32读取
+ *
+ * @author sHadowLess
+ */
+public class DexClassNameReaderTest {
+
+    /**
+     * The Folder.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * 读取类名，单个类的CRC32与批量计算结果一致
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void readNamesAndClassCrcs() throws Exception {
+        File dexFile = DexTestSupport.compileDex(folder.getRoot(), "a.dex",
+                "package p; public class A { int f; public int v(int x) { try { return x / f; } catch (ArithmeticException e) { return -1; } finally { f++; } } }",
+                "package p; public class B { public static class In { } }");
+        assertEquals(new HashSet<>(Arrays.asList("p.A", "p.B", "p.B$In")), new HashSet<>(DexClassNameReader.read(dexFile)));
+        ByteBuffer dex = ByteBuffer.wrap(Files.readAllBytes(dexFile.toPath()));
+        Map<String, Long> classCrcs = DexClassNameReader.readClassCrcs(dex);
+        assertEquals(3, classCrcs.size());
+        for (Map.Entry<String, Long> entry : classCrcs.entrySet()) {
+            assertEquals(entry.getValue().longValue(), DexClassNameReader.readClassCrc(dex, entry.getKey()));
+        }
+        assertNotEquals(classCrcs.get("p.A"), classCrcs.get("p.B"));
+        assertEquals(-1, DexClassNameReader.readClassCrc(dex, "p.Missing"));
+    }
+
+    /**
+     * 截断或头部错误的dex无法读取
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void truncatedDexIsRejected() throws Exception {
+        File dexFile = DexTestSupport.compileDex(folder.getRoot(), "a.dex", "package p; public class A { }");
+        byte[] bytes = Files.readAllBytes(dexFile.toPath());
+        assertReadFails(Arrays.copyOf(bytes, bytes.length - 1));
+        assertReadFails(Arrays.copyOf(bytes, 16));
+        byte[] badMagic = bytes.clone();
+        badMagic[0] = 'x';
+        assertReadFails(badMagic);
+        byte[] badOffset = bytes.clone();
+        ByteBuffer.wrap(badOffset).order(java.nio.ByteOrder.LITTLE_ENDIAN).putInt(0x64, bytes.length);
+        assertReadFails(badOffset);
+    }
+
+    /**
+     * Assert read fails.
+     *
+     * @param bytes the bytes
+     */
+    private void assertReadFails(byte[] bytes) {
+        try {
+            DexClassNameReader.read(ByteBuffer.wrap(bytes));
+            fail();
+        } catch (IOException e) {
+            //预期
+        }
+        try {
+            DexClassNameReader.readClassCrcs(ByteBuffer.wrap(bytes));
+            fail();
+        } catch (IOException e) {
+            //预期
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package cn.com.shadowless.compilelib;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DexRouteIndex的多dex登记、持久化和重建
+ *
+ * @author sHadowLess
+ */
+public class DexRouteIndexTest {
+
+    /**
+     * The Folder.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * 同一个类由多个dex定义时，优先的dex不再定义该类后回退到另一个dex
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void remainingOwnerStaysRouted() throws Exception {
+        File dexDir = folder.newFolder("dex");
+        File indexFile = new File(dexDir, ".index");
+        DexRouteIndex index = new DexRouteIndex(indexFile, dexDir);
+        index.update("a.dex", Arrays.asList("p.X", "p.A"));
+        index.update("b.dex", Arrays.asList("p.X", "p.B"));
+        assertEquals("b.dex", index.getDexName("p.X"));
+        index.update("b.dex", Collections.singletonList("p.B"));
+        assertEquals("a.dex", index.getDexName("p.X"));
+        index.update("b.dex", Arrays.asList("p.X", "p.B"));
+        index.remove("b.dex");
+        assertEquals("a.dex", index.getDexName("p.X"));
+        assertNull(index.getDexName("p.B"));
+
+        DexRouteIndex reloaded = new DexRouteIndex(indexFile, dexDir);
+        assertEquals("a.dex", reloaded.getDexName("p.X"));
+        assertEquals("a.dex", reloaded.getDexName("p.A"));
+    }
+
+    /**
+     * 构造时不读取文件，第一次查找时索引文件不存在则扫描dex文件夹，损坏的dex被跳过
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void rebuildsLazilyFromDexDir() throws Exception {
+        File dexDir = folder.newFolder("dex");
+        DexTestSupport.compileDex(dexDir, "one.dex", "package p; public class One { }");
+        Files.write(new File(dexDir, "broken.dex").toPath(), "broken".getBytes(StandardCharsets.UTF_8));
+        File indexFile = new File(dexDir, ".index");
+        DexRouteIndex index = new DexRouteIndex(indexFile, dexDir);
+        assertFalse(indexFile.exists());
+        assertEquals("one.dex", index.getDexName("p.One"));
+        assertTrue(indexFile.exists());
+        assertNull(index.getDexName("broken"));
+    }
+}
@@ -0,0 +1,86 @@
+package cn.com.shadowless.compilelib;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+
+/**
+ * 测试用的dex生成工具，通过Janino和dx在JVM上生成真实dex
+ *
+ * @author sHadowLess
+ */
+final class DexTestSupport {
+
+    /**
+     * Instantiates a new Dex test support.
+     */
+    private DexTestSupport() {
+    }
+
+    /**
+     * 编译源码为dex
+     *
+     * @param dir     工作文件夹
+     * @param dexName the dex name
+     * @param sources 每个元素为一个完整的编译单元
+     * @return the dex file
+     * @throws Exception the exception
+     */
+    static File compileDex(File dir, String dexName, String... sources) throws Exception {
+        CompileCore core = new CompileCore(false, DexTestSupport.class.getClassLoader());
+        File classDir = new File(dir, ".classes_" + dexName);
+        for (int i = 0; i < sources.length; i++) {
+            CompileCore.writeClassFiles(classDir.getAbsolutePath(), core.compile("Source" + i + ".java", new StringReader(sources[i]), null, null));
+        }
+        File dexFile = new File(dir, dexName);
+        core.runDx("--dex", "--no-strict", "--output=" + dexFile.getAbsolutePath(), classDir.getAbsolutePath());
+        CompileCore.deleteDirectory(classDir);
+        return dexFile;
+    }
+
+    /**
+     * 修改产物包头部或索引后重新计算头部与索引的CRC32，使测试只触发边界检查
+     *
+     * @param bundle the bundle
+     */
+    static void rewriteIndexCrc(byte[] bundle) {
+        ByteBuffer buffer = ByteBuffer.wrap(bundle);
+        int dataOffset = (int) buffer.getLong(16);
+        CRC32 crc32 = new CRC32();
+        crc32.update(bundle, 0, 24);
+        crc32.update(bundle, 32, dataOffset - 32);
+        buffer.putLong(24, crc32.getValue());
+    }
+
+    /**
+     * 查找字节序列第一次出现的位置
+     *
+     * @param data    the data
+     * @param pattern the pattern
+     * @return the int，不存在时为-1
+     */
+    static int indexOf(byte[] data, byte[] pattern) {
+        for (int i = 0; i <= data.length - pattern.length; i++) {
+            int j = 0;
+            while (j < pattern.length && data[i + j] == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * int的小端序字节
+     *
+     * @param value the value
+     * @return the byte [ ]
+     */
+    static byte[] littleEndian(int value) {
+        return ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value).array();
+    }
+}
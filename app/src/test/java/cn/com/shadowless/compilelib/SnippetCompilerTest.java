@@ -0,0 +1,187 @@
+package cn.com.shadowless.compilelib;
+
+import org.codehaus.janino.util.ClassFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 代码片段的源码生成、接口校验和dex复用
+ *
+ * @author sHadowLess
+ */
+public class SnippetCompilerTest {
+
+    /**
+     * The Folder.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * 一批片段生成的每个类都实现各自的接口，可直接通过接口调用
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void generatedClassesImplementInterfaces() throws Exception {
+        Snippet<IntBinary> add = Snippet.expression("a + b", IntBinary.class, "a", "b");
+        Snippet<Describer> describe = Snippet.script("if (value == null) { throw new java.io.IOException(\"null\"); }\nreturn \"v=\" + value;", Describer.class, "value");
+        List<Snippet<?>> batch = Arrays.<Snippet<?>>asList(add, describe);
+        CompileCore core = new CompileCore(false, getClass().getClassLoader());
+        final Map<String, byte[]> classes = new HashMap<>();
+        for (ClassFile classFile : core.compile("Snippets.java", new StringReader(SnippetCompiler.generateSource(batch)), null, null)) {
+            classes.put(classFile.getThisClassName(), classFile.toByteArray());
+        }
+        ClassLoader loader = new ClassLoader(getClass().getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                byte[] bytes = classes.get(name);
+                if (bytes == null) {
+                    throw new ClassNotFoundException(name);
+                }
+                return defineClass(name, bytes, 0, bytes.length);
+            }
+        };
+        IntBinary addInstance = SnippetCompiler.newInstance(loader.loadClass(SnippetCompiler.getClassName(add)), add);
+        assertEquals(5, addInstance.apply(2, 3));
+        Describer describer = SnippetCompiler.newInstance(loader.loadClass(SnippetCompiler.getClassName(describe)), describe);
+        assertEquals("v=x", describer.describe("x"));
+        try {
+            describer.describe(null);
+            fail();
+        } catch (java.io.IOException expected) {
+            assertEquals("null", expected.getMessage());
+        }
+    }
+
+    /**
+     * 已编译的dex包含全部片段类时不重复编译，暂存文件夹用后删除
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void validDexIsReused() throws Exception {
+        File dexDir = folder.newFolder("dex");
+        File stagingRoot = folder.newFolder("staging");
+        List<Snippet<?>> batch = Arrays.<Snippet<?>>asList(Snippet.expression("a * b", IntBinary.class, "a", "b"), Snippet.expression("a - b", IntBinary.class, "a", "b"));
+        File dexFile = new File(dexDir, SnippetCompiler.getDexName(batch));
+        SnippetCompiler compiler = new SnippetCompiler(new CompileCore(false, getClass().getClassLoader()));
+        assertTrue(compiler.compileToDexIfInvalid(batch, stagingRoot, dexFile, null, null));
+        assertFalse(compiler.compileToDexIfInvalid(batch, stagingRoot, dexFile, null, null));
+        List<String> classNames = DexClassNameReader.read(dexFile);
+        for (Snippet<?> snippet : batch) {
+            assertTrue(classNames.contains(SnippetCompiler.getClassName(snippet)));
+        }
+        assertEquals(0, stagingRoot.list().length);
+        assertEquals(1, dexDir.list().length);
+    }
+
+    /**
+     * 片段hash只由接口方法、参数名和源码决定
+     */
+    @Test
+    public void hashDependsOnSnippetOnly() {
+        Snippet<IntBinary> first = Snippet.expression("a + b", IntBinary.class, "a", "b");
+        assertEquals(first.getHash(), Snippet.expression("a + b", IntBinary.class, "a", "b").getHash());
+        assertNotEquals(first.getHash(), Snippet.expression("a + b", IntBinary.class, "b", "a").getHash());
+        assertNotEquals(first.getHash(), Snippet.script("return a + b;", IntBinary.class, "a", "b").getHash());
+    }
+
+    /**
+     * 非接口、多个抽象方法、参数名数量不一致时拒绝
+     */
+    @Test
+    public void invalidInterfaceIsRejected() {
+        assertRejected(Object.class, "x");
+        assertRejected(TwoMethods.class, "a");
+        assertRejected(IntBinary.class, "a");
+    }
+
+    /**
+     * Assert rejected.
+     *
+     * @param type           the type
+     * @param parameterNames the parameter names
+     */
+    private static void assertRejected(Class<?> type, String... parameterNames) {
+        try {
+            Snippet.expression("a", type, parameterNames);
+            fail(type.getName());
+        } catch (IllegalArgumentException expected) {
+            //预期异常
+        }
+    }
+
+    /**
+     * The interface Int binary.
+     */
+    public interface IntBinary {
+
+        /**
+         * Apply int.
+         *
+         * @param a the a
+         * @param b the b
+         * @return the int
+         */
+        int apply(int a, int b);
+
+        /**
+         * Object的方法不算作片段方法
+         *
+         * @param o the o
+         * @return the boolean
+         */
+        @Override
+        boolean equals(Object o);
+    }
+
+    /**
+     * The interface Describer.
+     */
+    public interface Describer {
+
+        /**
+         * Describe string.
+         *
+         * @param value the value
+         * @return the string
+         * @throws java.io.IOException the io exception
+         */
+        String describe(String value) throws java.io.IOException;
+    }
+
+    /**
+     * The interface Two methods.
+     */
+    public interface TwoMethods {
+
+        /**
+         * A.
+         *
+         * @param a the a
+         */
+        void a(int a);
+
+        /**
+         * B.
+         *
+         * @param b the b
+         */
+        void b(int b);
+    }
+}